@@ -0,0 +1,78 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scaled copies of the Cranfield collection for the benchmarks. A corpus with
+ * {@code replicas = N} repeats cran.all.1400 N times, renumbering the .I ids
+ * so every copy is a distinct document.
+ */
+final class BenchCorpus {
+
+    static final String CRAN_FILE = "cran/cran.all.1400";
+    static final String QUERIES_FILE = "cran/cran.qry";
+    static final Path WORK_DIR = Paths.get("target/bench");
+
+    private BenchCorpus() {}
+
+    static File scaledCorpus(int replicas) throws IOException {
+        if (replicas <= 1) return new File(CRAN_FILE);
+        Files.createDirectories(WORK_DIR);
+        File scaled = WORK_DIR.resolve("cran.all.x" + replicas).toFile();
+        if (scaled.exists()) return scaled;
+
+        List<String> lines = Files.readAllLines(Paths.get(CRAN_FILE));
+        int maxId = 0;
+        for (String line : lines) {
+            if (line.startsWith(".I ")) maxId = Math.max(maxId, Integer.parseInt(line.substring(3).trim()));
+        }
+
+        File tmp = WORK_DIR.resolve("cran.all.x" + replicas + ".tmp").toFile();
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp)))) {
+            for (int r = 0; r < replicas; r++) {
+                int offset = r * maxId;
+                for (String line : lines) {
+                    if (line.startsWith(".I ")) {
+                        pw.println(".I " + (Integer.parseInt(line.substring(3).trim()) + offset));
+                    } else {
+                        pw.println(line);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), scaled.toPath());
+        return scaled;
+    }
+
+    /** Index cache rooted under target/bench so benchmark indexes never touch index/. */
+    static AnalyzerIndexCache indexCache(int replicas) throws IOException {
+        return new AnalyzerIndexCache(WORK_DIR + "/index_x" + replicas + "/", scaledCorpus(replicas));
+    }
+
+    static DirectoryReader openReader(AnalyzerIndexCache cache, String analyzerName) throws Exception {
+        return cache.getReader(analyzerName, CranFieldParserIndexer.analyzerByName(analyzerName));
+    }
+
+    /** Raw cran.qry text, before analysis. */
+    static List<String> rawQueries() throws IOException {
+        return new ArrayList<>(CranFieldParserIndexer.loadRawQueries(QUERIES_FILE).values());
+    }
+
+    static List<String> analyzedQueries(Analyzer analyzer) throws IOException {
+        List<String> queries = new ArrayList<>();
+        for (String q : CranFieldParserIndexer.loadQueries(QUERIES_FILE, analyzer).values()) {
+            queries.add(q.replaceAll("[\\?\\*]", " "));
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,107 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.BytesRef;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.FilterCache;
+import org.cranfield.QueryCompiler;
+import org.cranfield.TopKSearch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every cran.qry query filtered by each of the most frequent authors, and by
+ * all of them at once, searched (BM25, top 10) without a filter cache and with
+ * a {@link FilterCache} configured from {@code -Dcranfield.filterCache.*}.
+ * The filter cache's hit rate is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    /** How many of the most frequent author terms to filter by. */
+    @Param({"5"})
+    public int authors;
+
+    @Param({"uncached", "cached"})
+    public String mode;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private IndexSearcher searcher;
+    private FilterCache filterCache;
+    private List<String> filters;
+    private List<QueryCompiler.CompiledQuery> queries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        if (mode.equals("cached")) {
+            filterCache = FilterCache.fromSystemProperties();
+            filterCache.apply(searcher);
+        } else {
+            searcher.setQueryCache(null);
+        }
+
+        List<String> popular = topTerms(reader, "author", authors);
+        filters = new ArrayList<>(popular);
+        filters.add(String.join(",", popular));
+        queries = QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (filterCache != null) System.out.println("\nFilter cache: " + filterCache);
+        cache.close();
+    }
+
+    @Benchmark
+    public void filteredSearch(Blackhole bh) throws Exception {
+        for (QueryCompiler.CompiledQuery q : queries) {
+            for (String author : filters) {
+                bh.consume(TopKSearch.search(searcher, CranFieldParserIndexer.withFilters(q.query(), author, ""), 10,
+                        TopKSearch.threshold(10)));
+            }
+        }
+    }
+
+    /** The {@code n} most frequent terms of {@code field} longer than three characters, e.g. the most prolific authors' surnames. */
+    static List<String> topTerms(IndexReader reader, String field, int n) throws IOException {
+        Terms terms = MultiTerms.getTerms(reader, field);
+        if (terms == null) return List.of();
+        PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        TermsEnum te = terms.iterator();
+        for (BytesRef t = te.next(); t != null; t = te.next()) {
+            if (t.length <= 3) continue;
+            top.add(Map.entry(t.utf8ToString(), te.docFreq()));
+            if (top.size() > n) top.poll();
+        }
+        List<String> result = new ArrayList<>();
+        while (!top.isEmpty()) result.add(top.poll().getKey());
+        Collections.reverse(result);
+        return result;
+    }
+}
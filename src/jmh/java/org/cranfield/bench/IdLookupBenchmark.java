@@ -0,0 +1,89 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.DocIdLookup;
+import org.cranfield.QueryCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results-writing path for 100-hit runs of every cran.qry query:
+ * resolving ids through stored documents versus {@link DocIdLookup}. The
+ * queries run once in setup; only id resolution and formatting are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IdLookupBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private IndexSearcher searcher;
+    private List<TopDocs> runs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        runs = new ArrayList<>();
+        for (QueryCompiler.CompiledQuery q : QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f)) {
+            runs.add(searcher.search(q.query(), 100));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Benchmark
+    public void storedFields() throws Exception {
+        PrintWriter pw = new PrintWriter(Writer.nullWriter());
+        StoredFields storedFields = searcher.storedFields();
+        int qid = 1;
+        for (TopDocs td : runs) {
+            int rank = 1;
+            for (ScoreDoc sd : td.scoreDocs) {
+                String docId = storedFields.document(sd.doc).get("id");
+                pw.printf("%d Q0 %s %d %.6f cranLucene\n", qid, docId, rank++, sd.score);
+            }
+            qid++;
+        }
+    }
+
+    @Benchmark
+    public void docValues() throws Exception {
+        PrintWriter pw = new PrintWriter(Writer.nullWriter());
+        DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+        int qid = 1;
+        for (TopDocs td : runs) {
+            int rank = 1;
+            for (ScoreDoc sd : td.scoreDocs) {
+                pw.printf("%d Q0 %s %d %.6f cranLucene\n", qid, ids.get(sd.doc), rank++, sd.score);
+            }
+            qid++;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.cranfield.AnalyzedTokenCache;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.CranFieldReader;
+import org.cranfield.IndexingOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * buildIndex for each analyzer, from already-parsed documents, streamed from
+ * the file, and streamed with tokens replayed from an AnalyzedTokenCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+
+    @Param({"StandardAnalyzer", "EnglishAnalyzer", "SimpleAnalyzer", "WhitespaceAnalyzer", "CustomAnalyzer"})
+    public String analyzerName;
+
+    @Param({"1"})
+    public int replicas;
+
+    /** Indexing threads for the streaming variant, see {@link IndexingOptions#threads}. */
+    @Param({"1"})
+    public int threads;
+
+    private File corpus;
+    private List<CranFieldParserIndexer.CranFieldDocument> docs;
+    private Analyzer analyzer;
+    private Path indexPath;
+    private AnalyzedTokenCache tokens;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        corpus = BenchCorpus.scaledCorpus(replicas);
+        docs = CranFieldParserIndexer.parseCranField(corpus);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        indexPath = BenchCorpus.WORK_DIR.resolve("build_" + analyzerName + "_x" + replicas);
+        tokens = AnalyzedTokenCache.forCorpus(BenchCorpus.WORK_DIR.resolve("tokens"), analyzerName, analyzer, corpus,
+                AnalyzerIndexCache.corpusFingerprint(corpus));
+    }
+
+    @Benchmark
+    public void buildIndex() throws Exception {
+        CranFieldParserIndexer.buildIndex(indexPath, docs, analyzer);
+    }
+
+    @Benchmark
+    public void buildIndexStreaming() throws Exception {
+        CranFieldParserIndexer.buildIndex(indexPath, corpus, analyzer, Map.of(), IndexingOptions.defaults().threads(threads));
+    }
+
+    @Benchmark
+    public void buildIndexReplayed() throws Exception {
+        try (CranFieldReader reader = new CranFieldReader(corpus)) {
+            CranFieldParserIndexer.buildIndex(indexPath, tokens.replay(reader), analyzer, Map.of(),
+                    IndexingOptions.defaults().threads(threads));
+        }
+    }
+}
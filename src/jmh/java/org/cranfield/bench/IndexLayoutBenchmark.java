@@ -0,0 +1,168 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.codecs.CompoundDirectory;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.cranfield.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link IndexLayout} profiles side by side: building the profile's index
+ * from the analyzed token cache, the cran.qry batch (BM25, top 100) and
+ * interactive-style display queries (top 10 plus stored title and body).
+ * Trial setup builds the index once and prints its KB on disk per file type
+ * and its MAP, so size and effectiveness sit next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexLayoutBenchmark {
+
+    private static final Map<String, String> EXTENSIONS = new LinkedHashMap<>();
+
+    static {
+        EXTENSIONS.put("tim", "terms dictionary");
+        EXTENSIONS.put("tip", "terms index");
+        EXTENSIONS.put("tmd", "terms metadata");
+        EXTENSIONS.put("doc", "postings: docs and freqs");
+        EXTENSIONS.put("pos", "postings: positions");
+        EXTENSIONS.put("pay", "postings: offsets");
+        EXTENSIONS.put("psm", "postings metadata");
+        EXTENSIONS.put("nvd", "norms");
+        EXTENSIONS.put("nvm", "norms metadata");
+        EXTENSIONS.put("fdt", "stored fields");
+        EXTENSIONS.put("fdx", "stored fields index");
+        EXTENSIONS.put("fdm", "stored fields metadata");
+        EXTENSIONS.put("tvd", "term vectors");
+        EXTENSIONS.put("tvx", "term vectors index");
+        EXTENSIONS.put("tvm", "term vectors metadata");
+        EXTENSIONS.put("dvd", "doc values");
+        EXTENSIONS.put("dvm", "doc values metadata");
+        EXTENSIONS.put("fnm", "field infos");
+        EXTENSIONS.put("si", "segment info");
+        EXTENSIONS.put("cfe", "compound file entries");
+        EXTENSIONS.put("segments", "commit point");
+    }
+
+    @Param({"default", "compressed", "compact", "minimal"})
+    public String profile;
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    @Param({"1"})
+    public int replicas;
+
+    private File corpus;
+    private Analyzer analyzer;
+    private IndexingOptions options;
+    private AnalyzedTokenCache tokens;
+    private Path buildPath;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private List<QueryCompiler.CompiledQuery> queries;
+    private QueryMetrics display;
+    private String runFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        corpus = BenchCorpus.scaledCorpus(replicas);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        options = IndexingOptions.defaults().layout(IndexLayout.profile(profile));
+        tokens = AnalyzedTokenCache.forCorpus(BenchCorpus.WORK_DIR.resolve("tokens"), analyzerName, analyzer, corpus,
+                AnalyzerIndexCache.corpusFingerprint(corpus));
+        Path indexPath = BenchCorpus.WORK_DIR.resolve("layout_" + analyzerName + "_" + profile + "_x" + replicas);
+        buildPath = BenchCorpus.WORK_DIR.resolve("layout_build_" + analyzerName + "_" + profile + "_x" + replicas);
+        build(indexPath);
+
+        reader = DirectoryReader.open(FSDirectory.open(indexPath));
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        queries = QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f);
+        display = new QueryMetrics();
+        runFile = BenchCorpus.WORK_DIR.resolve("run_layout_" + profile + ".txt").toString();
+
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels("cran/cranqrel"));
+        double map = evaluator.evaluate(profile, batch()).get("map");
+        Map<String, Long> bytes = bytesByExtension(indexPath);
+        System.out.printf("%n%s: %s | map %.4f%n", profile, IndexLayout.profile(profile).describe(), map);
+        for (Map.Entry<String, Long> e : bytes.entrySet()) {
+            System.out.printf("  %-28s %10.1f KB%n", e.getKey() + " " + EXTENSIONS.getOrDefault(e.getKey(), ""),
+                    e.getValue() / 1024.0);
+        }
+        System.out.printf("  %-28s %10.1f KB%n", "total", bytes.values().stream().mapToLong(Long::longValue).sum() / 1024.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Directory dir = reader.directory();
+        reader.close();
+        dir.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public CranFieldParserIndexer.IndexStats buildIndex() throws Exception {
+        return build(buildPath);
+    }
+
+    @Benchmark
+    public List<TrecEvaluator.QueryRun> batch() throws Exception {
+        return CranFieldParserIndexer.generateTrecResults(searcher, analyzer, BenchCorpus.QUERIES_FILE, runFile,
+                100, 2.0f, 1.0f);
+    }
+
+    @Benchmark
+    public void displayQueries() throws Exception {
+        for (QueryCompiler.CompiledQuery q : queries) IndexWarmer.runQuery(searcher, q, display);
+    }
+
+    private CranFieldParserIndexer.IndexStats build(Path path) throws Exception {
+        try (CranFieldReader docs = new CranFieldReader(corpus)) {
+            return CranFieldParserIndexer.buildIndex(path, tokens.replay(docs), analyzer, Map.of(), options);
+        }
+    }
+
+    /**
+     * Bytes on disk per file extension of the index's latest commit. Files
+     * packed into a compound file are counted under their own extensions, so
+     * the split is the same whether or not a segment uses one.
+     */
+    static Map<String, Long> bytesByExtension(Path indexPath) throws IOException {
+        Map<String, Long> bytes = new TreeMap<>();
+        try (Directory dir = FSDirectory.open(indexPath)) {
+            SegmentInfos infos = SegmentInfos.readLatestCommit(dir);
+            Set<String> files = new TreeSet<>(infos.files(true));
+            for (SegmentCommitInfo sci : infos) {
+                if (!sci.info.getUseCompoundFile()) continue;
+                try (CompoundDirectory cfs = sci.info.getCodec().compoundFormat()
+                        .getCompoundReader(dir, sci.info, IOContext.READONCE)) {
+                    for (String inner : cfs.listAll()) {
+                        bytes.merge(IndexFileNames.getExtension(inner), cfs.fileLength(inner), Long::sum);
+                    }
+                }
+                files.remove(IndexFileNames.segmentFileName(sci.info.name, "", "cfs"));
+            }
+            for (String file : files) {
+                String ext = IndexFileNames.getExtension(file);
+                bytes.merge(ext == null ? "segments" : ext, dir.fileLength(file), Long::sum);
+            }
+        }
+        return bytes;
+    }
+}
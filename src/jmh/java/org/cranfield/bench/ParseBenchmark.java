@@ -0,0 +1,42 @@
+package org.cranfield.bench;
+
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.CranFieldReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** parseCranField and the streaming CranFieldReader over the (optionally replicated) collection. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1"})
+    public int replicas;
+
+    private File corpus;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        corpus = BenchCorpus.scaledCorpus(replicas);
+    }
+
+    @Benchmark
+    public List<CranFieldParserIndexer.CranFieldDocument> parseCranField() throws Exception {
+        return CranFieldParserIndexer.parseCranField(corpus);
+    }
+
+    @Benchmark
+    public void streamCranField(Blackhole bh) throws Exception {
+        try (CranFieldReader reader = new CranFieldReader(corpus)) {
+            while (reader.hasNext()) bh.consume(reader.next());
+        }
+    }
+}
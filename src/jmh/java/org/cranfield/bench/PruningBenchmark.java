@@ -0,0 +1,110 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.QueryCompiler;
+import org.cranfield.TopKSearch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exhaustive versus dynamically pruned top-k scoring of all cran.qry queries,
+ * for every similarity. Trial setup checks that both modes return the same
+ * ranked hits and prints the documents scored per query in each mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PruningBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    /** simChoice passed to makeSearcherWithSimilarity: 1 TFIDF, 2 BM25, 3 LMDirichlet, 4 LMJelinekMercer. */
+    @Param({"1", "2", "3", "4"})
+    public int simChoice;
+
+    @Param({"100"})
+    public int k;
+
+    /** {@code exhaustive} counts every hit; {@code pruned} stops counting at k so scorers can skip. */
+    @Param({"exhaustive", "pruned"})
+    public String mode;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private IndexSearcher searcher;
+    private List<Query> queries;
+    private int threshold;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, simChoice);
+        queries = new ArrayList<>();
+        for (QueryCompiler.CompiledQuery q : QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f)) {
+            queries.add(q.query());
+        }
+        threshold = mode.equals("pruned") ? k : TopKSearch.EXHAUSTIVE;
+
+        List<TopDocs> exhaustiveHits = new ArrayList<>(), prunedHits = new ArrayList<>();
+        long exhaustiveDocs = runAll(TopKSearch.EXHAUSTIVE, exhaustiveHits);
+        long prunedDocs = runAll(k, prunedHits);
+        if (!sameHits(exhaustiveHits, prunedHits)) {
+            throw new IllegalStateException("Pruned top-" + k + " differs from exhaustive scoring for " + analyzerName
+                    + " / " + CranFieldParserIndexer.SIMILARITY_NAMES[simChoice - 1]);
+        }
+        System.out.printf("%n%s docs scored per query: exhaustive %.1f, pruned %.1f%n",
+                CranFieldParserIndexer.SIMILARITY_NAMES[simChoice - 1],
+                (double) exhaustiveDocs / queries.size(), (double) prunedDocs / queries.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) throws Exception {
+        for (Query q : queries) bh.consume(TopKSearch.search(searcher, q, k, threshold));
+    }
+
+    /** Runs every query once; returns the total documents scored. */
+    private long runAll(int threshold, List<TopDocs> hits) throws Exception {
+        long scored = 0;
+        for (Query q : queries) {
+            TopKSearch.Result r = TopKSearch.search(searcher, q, k, threshold);
+            scored += r.docsScored();
+            hits.add(r.topDocs());
+        }
+        return scored;
+    }
+
+    private static boolean sameHits(List<TopDocs> a, List<TopDocs> b) {
+        for (int i = 0; i < a.size(); i++) {
+            ScoreDoc[] x = a.get(i).scoreDocs, y = b.get(i).scoreDocs;
+            if (x.length != y.length) return false;
+            for (int j = 0; j < x.length; j++) {
+                if (x[j].doc != y[j].doc || x[j].score != y[j].score) return false;
+            }
+        }
+        return true;
+    }
+}
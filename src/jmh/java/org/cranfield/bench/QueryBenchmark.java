@@ -0,0 +1,105 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.QueryCompiler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query-side hot paths over all 225 cran.qry queries: analysis, parsing,
+ * compiling pre-analyzed tokens, searching with each similarity, and writing a full TREC run.
+ * Every benchmark op covers the whole query set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"EnglishAnalyzer", "CustomAnalyzer"})
+    public String analyzerName;
+
+    /** simChoice passed to makeSearcherWithSimilarity: 1 TFIDF, 2 BM25, 3 LMDirichlet, 4 LMJelinekMercer. */
+    @Param({"1", "2", "3", "4"})
+    public int simChoice;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private Analyzer analyzer;
+    private IndexSearcher searcher;
+    private List<String> rawQueries;
+    private List<String> analyzedQueries;
+    private List<Query> compiledQueries;
+    private List<List<String>> queryTokens;
+    private String runFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, simChoice);
+
+        rawQueries = BenchCorpus.rawQueries();
+        analyzedQueries = BenchCorpus.analyzedQueries(analyzer);
+        queryTokens = new ArrayList<>(QueryCompiler.tokens(BenchCorpus.QUERIES_FILE, analyzer).values());
+        compiledQueries = new ArrayList<>();
+        for (QueryCompiler.CompiledQuery q : QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f)) {
+            compiledQueries.add(q.query());
+        }
+
+        runFile = BenchCorpus.WORK_DIR.resolve("run_" + analyzerName + "_" + simChoice + ".txt").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    private MultiFieldQueryParser newParser() {
+        return new MultiFieldQueryParser(new String[]{"title", "body"}, analyzer, Map.of("title", 2.0f, "body", 1.0f));
+    }
+
+    @Benchmark
+    public void analyzeQuery(Blackhole bh) throws Exception {
+        for (String q : rawQueries) bh.consume(CranFieldParserIndexer.analyzeQuery(q, analyzer));
+    }
+
+    @Benchmark
+    public void parseQuery(Blackhole bh) throws Exception {
+        MultiFieldQueryParser parser = newParser();
+        for (String q : analyzedQueries) bh.consume(parser.parse(q));
+    }
+
+    /** Building title/body queries from already analyzed tokens, the batch replacement for parseQuery. */
+    @Benchmark
+    public void compileQuery(Blackhole bh) {
+        for (List<String> tokens : queryTokens) bh.consume(QueryCompiler.compile(tokens, 2.0f, 1.0f));
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) throws Exception {
+        for (Query q : compiledQueries) bh.consume(searcher.search(q, 100));
+    }
+
+    @Benchmark
+    public Object writeTrecRun() throws Exception {
+        return CranFieldParserIndexer.generateTrecResults(searcher, analyzer, BenchCorpus.QUERIES_FILE, runFile,
+                100, 2.0f, 1.0f);
+    }
+}
@@ -0,0 +1,76 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.cranfield.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BM25 run of cran.qry (top 100) without and with {@link Rm3Expander}
+ * feedback; the timings include the expansion phase. Trial setup evaluates
+ * the run once and prints its MAP and P@10, so effectiveness sits next to the
+ * timings. The feedback settings only matter when {@code rm3} is true.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Rm3Benchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    @Param({"false", "true"})
+    public boolean rm3;
+
+    @Param({"10"})
+    public int fbDocs;
+
+    @Param({"10"})
+    public int fbTerms;
+
+    @Param({"0.5"})
+    public float originalWeight;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private Analyzer analyzer;
+    private IndexSearcher searcher;
+    private BatchSearchOptions options;
+    private String runFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        Rm3Expander expander = rm3 ? new Rm3Expander(fbDocs, fbTerms, originalWeight) : null;
+        options = BatchSearchOptions.defaults().expander(expander);
+        String runName = "BM25" + (expander == null ? "" : "+" + expander.name());
+        runFile = BenchCorpus.WORK_DIR.resolve("run_" + runName + ".txt").toString();
+
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels("cran/cranqrel"));
+        TrecEvaluator.Result result = evaluator.evaluate(runName, search());
+        System.out.printf("%n%s: map %.4f | P_10 %.4f%n", runName, result.get("map"), result.get("P_10"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Benchmark
+    public List<TrecEvaluator.QueryRun> search() throws Exception {
+        return CranFieldParserIndexer.generateTrecResults(searcher, analyzer, BenchCorpus.QUERIES_FILE, runFile,
+                100, 2.0f, 1.0f, options);
+    }
+}
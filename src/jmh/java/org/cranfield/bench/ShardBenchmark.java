@@ -0,0 +1,88 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.cranfield.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cran.qry batch (top 100) on the single index ({@code shards = 1}) and
+ * scatter-gather over a {@link ShardedIndex}. Trial setup evaluates both the
+ * single-index run and this setting's run, prints MAP and P@10, and fails if
+ * sharding moved MAP: shard searchers share whole-collection statistics, so
+ * only the order of exact score ties may differ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShardBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    @Param({"2"})
+    public int simChoice;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private Analyzer analyzer;
+    private IndexSearcher searcher;
+    private ShardedIndex index;
+    private String runFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, simChoice);
+        runFile = BenchCorpus.WORK_DIR.resolve("run_shards" + shards + ".txt").toString();
+
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels("cran/cranqrel"));
+        TrecEvaluator.Result single = evaluator.evaluate("single", CranFieldParserIndexer.generateTrecResults(searcher,
+                analyzer, BenchCorpus.QUERIES_FILE, BenchCorpus.WORK_DIR.resolve("run_single.txt").toString(),
+                100, 2.0f, 1.0f));
+        if (shards > 1) {
+            List<Path> paths = cache.ensureShards(analyzerName, analyzer, shards);
+            index = new ShardedIndex(paths, simChoice, DirectoryOptions.fromSystemProperties());
+        }
+        TrecEvaluator.Result result = shards > 1 ? evaluator.evaluate("shards" + shards, search()) : single;
+        System.out.printf("%n%s shards %d: map %.4f | P_10 %.4f (single index: map %.4f)%n",
+                CranFieldParserIndexer.SIMILARITY_NAMES[simChoice - 1], shards, result.get("map"), result.get("P_10"),
+                single.get("map"));
+        String map = String.format(Locale.ROOT, "%.4f", result.get("map"));
+        if (!map.equals(String.format(Locale.ROOT, "%.4f", single.get("map")))) {
+            throw new IllegalStateException("MAP with " + shards + " shards differs from the single index: "
+                    + map + " vs " + String.format(Locale.ROOT, "%.4f", single.get("map")));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (index != null) index.close();
+        cache.close();
+    }
+
+    @Benchmark
+    public List<TrecEvaluator.QueryRun> search() throws Exception {
+        if (index == null) {
+            return CranFieldParserIndexer.generateTrecResults(searcher, analyzer, BenchCorpus.QUERIES_FILE, runFile,
+                    100, 2.0f, 1.0f);
+        }
+        return index.generateTrecResults(analyzer, BenchCorpus.QUERIES_FILE, runFile, 100, 2.0f, 1.0f, null);
+    }
+}
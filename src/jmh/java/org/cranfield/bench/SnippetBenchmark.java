@@ -0,0 +1,121 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.cranfield.AnalyzerIndexCache;
+import org.cranfield.CranFieldParserIndexer;
+import org.cranfield.QueryCompiler;
+import org.cranfield.SnippetGenerator;
+import org.cranfield.TopKSearch;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body snippets for the top {@code k} hits of every cran.qry query: the
+ * 200-character prefix of the stored body (what interactiveSearch used to
+ * show), highlighted snippets without a cache, and highlighted snippets
+ * answered from a warm cache. Trial setup prints how many distinct query
+ * terms a snippet shows on average.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnippetBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    @Param({"10"})
+    public int k;
+
+    @Param({"prefix", "highlight", "highlight_cached"})
+    public String mode;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private IndexSearcher searcher;
+    private SnippetGenerator generator;
+    private List<QueryCompiler.CompiledQuery> queries;
+    private List<ScoreDoc[]> results;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        generator = new SnippetGenerator(analyzer, 200, 10000, mode.equals("highlight_cached") ? 4096 : 0, "", "");
+        queries = QueryCompiler.compile(BenchCorpus.QUERIES_FILE, analyzer, 2.0f, 1.0f);
+        results = new ArrayList<>();
+        for (QueryCompiler.CompiledQuery q : queries) {
+            results.add(TopKSearch.search(searcher, q.query(), k, TopKSearch.threshold(k)).topDocs().scoreDocs);
+        }
+
+        String[][] shown = snippets();
+        long snippets = 0, termsShown = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            Set<String> terms = new HashSet<>(Arrays.asList(queries.get(i).terms().split(" ")));
+            for (String body : shown[i]) {
+                snippets++;
+                if (body != null) termsShown += queryTermsShown(body, terms, analyzer);
+            }
+        }
+        System.out.printf("%n%s: %.2f query terms per snippet%n", mode, (double) termsShown / snippets);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.out.println("\nSnippet cache: " + generator);
+        cache.close();
+    }
+
+    @Benchmark
+    public String[][] snippets() throws IOException {
+        String[][] shown = new String[queries.size()][];
+        for (int i = 0; i < queries.size(); i++) {
+            ScoreDoc[] hits = results.get(i);
+            String[] bodies = new String[hits.length];
+            if (mode.equals("prefix")) {
+                StoredFields storedFields = searcher.storedFields();
+                for (int h = 0; h < hits.length; h++) {
+                    Document doc = storedFields.document(hits[h].doc, CranFieldParserIndexer.DISPLAY_FIELDS);
+                    String body = doc.get("body");
+                    bodies[h] = body != null && body.length() > 200 ? body.substring(0, 200) + "..." : body;
+                }
+            } else {
+                SnippetGenerator.Snippet[] s = generator.snippets(searcher, queries.get(i).query(), hits);
+                for (int h = 0; h < hits.length; h++) bodies[h] = s[h].body();
+            }
+            shown[i] = bodies;
+        }
+        return shown;
+    }
+
+    /** How many distinct {@code queryTerms} the analyzed {@code text} contains. */
+    private static int queryTermsShown(String text, Set<String> queryTerms, Analyzer analyzer) throws IOException {
+        Set<String> shown = new HashSet<>();
+        try (TokenStream ts = analyzer.tokenStream("body", text)) {
+            CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                if (queryTerms.contains(termAtt.toString())) shown.add(termAtt.toString());
+            }
+            ts.end();
+        }
+        return shown.size();
+    }
+}
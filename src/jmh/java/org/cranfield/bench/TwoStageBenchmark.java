@@ -0,0 +1,74 @@
+package org.cranfield.bench;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.cranfield.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BM25 run of cran.qry (top 100) alone and with {@link TwoStageSearch}
+ * re-ranking of the top {@code candidates}. Trial setup evaluates the run once
+ * and prints its MAP and P@10, so effectiveness sits next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TwoStageBenchmark {
+
+    @Param({"EnglishAnalyzer"})
+    public String analyzerName;
+
+    /**
+     * Re-ranker spec as for {@code -Dcranfield.rerank}, with {@code +} between
+     * re-rankers instead of a comma (JMH splits -p values on commas); {@code none} for BM25 alone.
+     */
+    @Param({"none", "LMDirichlet", "proximity:3:0.5", "LMDirichlet+proximity:3:0.5"})
+    public String rerank;
+
+    @Param({"200"})
+    public int candidates;
+
+    @Param({"1"})
+    public int replicas;
+
+    private AnalyzerIndexCache cache;
+    private Analyzer analyzer;
+    private IndexSearcher searcher;
+    private BatchSearchOptions options;
+    private String runFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cache = BenchCorpus.indexCache(replicas);
+        analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        DirectoryReader reader = BenchCorpus.openReader(cache, analyzerName);
+        searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+        TwoStageSearch pipeline = rerank.equals("none") ? null
+                : new TwoStageSearch(candidates, TwoStageSearch.parse(rerank.replace('+', ',')));
+        options = BatchSearchOptions.defaults().reranker(pipeline);
+        runFile = BenchCorpus.WORK_DIR.resolve("run_rerank_" + rerank.replaceAll("[^A-Za-z0-9.]", "_") + ".txt").toString();
+
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels("cran/cranqrel"));
+        TrecEvaluator.Result result = evaluator.evaluate(rerank, search());
+        System.out.printf("%nBM25%s: map %.4f | P_10 %.4f%n", pipeline == null ? "" : " rerank-" + pipeline.name(),
+                result.get("map"), result.get("P_10"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Benchmark
+    public List<TrecEvaluator.QueryRun> search() throws Exception {
+        return CranFieldParserIndexer.generateTrecResults(searcher, analyzer, BenchCorpus.QUERIES_FILE, runFile,
+                100, 2.0f, 1.0f, options);
+    }
+}
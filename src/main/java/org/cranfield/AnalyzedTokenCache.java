@@ -0,0 +1,449 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.BytesTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Analyzed token sequences of a Cranfield file, kept on disk so the analysis
+ * chain runs once per (analyzer, input fingerprint) instead of on every index
+ * build or query run. The fingerprint includes
+ * {@link AnalyzerIndexCache#analyzerFingerprint}, so a changed analysis chain
+ * is never replayed from an old file.
+ *
+ * One file holds every analyzed field of every record:
+ * <pre>
+ *   "CTOK" version analyzer fingerprint fieldCount fieldNames...
+ *   token data: per (record, field) a vint token count, then per token a vint
+ *               (termId &lt;&lt; 1 | gap), followed by a vint position increment when gap is 1,
+ *               then vints for the start offset (delta to the previous token's) and the length
+ *   long start offset of each (record, field) in the token data
+ *   term dictionary: vint length + UTF-8 bytes per term id
+ *   footer: records terms dataStart dataLength startsOffset dictionaryOffset
+ * </pre>
+ * The file is written in one pass: token data goes straight to disk as each
+ * record is analyzed and the offsets go to a side file that is appended after
+ * it, so building needs memory for one field's tokens and the term dictionary,
+ * not for the corpus. Files are memory-mapped for reading, the token data in
+ * chunks of at most {@link #MAX_CHUNK} bytes so it may exceed 2 GB. Replayed
+ * tokens hand the dictionary's term bytes straight to IndexWriter, so nothing
+ * is re-tokenized or re-encoded. A file whose analyzer, fingerprint or version
+ * does not match is rebuilt.
+ */
+public final class AnalyzedTokenCache {
+
+    /** The analyzed fields of a corpus record, in the order ReusableCranDocument indexes them. */
+    public static final String[] CORPUS_FIELDS = {"title", "author", "biblio", "body"};
+    private static final String[] QUERY_FIELDS = {"query"};
+
+    private static final int MAGIC = 0x43544F4B; // "CTOK"
+    private static final int VERSION = 3;
+    private static final int FOOTER_BYTES = 2 * Integer.BYTES + 4 * Long.BYTES;
+    /** Largest token data chunk mapped as one buffer; chunks end on (record, field) boundaries. */
+    static final long MAX_CHUNK = 1L << 30;
+
+    private final String[] fields;
+    private final int records;
+    private final BytesRef[] terms;
+    private final long[] starts;
+    // data chunk i holds the token data from chunkBases[i]; an entry lies wholly inside one chunk
+    private final long[] chunkBases;
+    private final ByteBuffer[] chunks;
+
+    private AnalyzedTokenCache(String[] fields, int records, BytesRef[] terms, long[] starts, long[] chunkBases,
+                               ByteBuffer[] chunks) {
+        this.fields = fields;
+        this.records = records;
+        this.terms = terms;
+        this.starts = starts;
+        this.chunkBases = chunkBases;
+        this.chunks = chunks;
+    }
+
+    /** Chunk holding entry {@code entry} (record * fields + field). */
+    private int chunkOf(int entry) {
+        int c = Arrays.binarySearch(chunkBases, starts[entry]);
+        return c >= 0 ? c : -c - 2;
+    }
+
+    /** Token cache for a Cranfield collection file, built on first use. */
+    public static AnalyzedTokenCache forCorpus(Path dir, String analyzerName, Analyzer analyzer, File corpusFile,
+                                               String fingerprint) throws IOException {
+        Path file = dir.resolve(analyzerName + "_" + corpusFile.getName() + ".tok");
+        fingerprint = fingerprint + "/" + AnalyzerIndexCache.analyzerFingerprint(analyzer);
+        AnalyzedTokenCache cache = open(file, analyzerName, fingerprint);
+        if (cache != null) return cache;
+
+        long start = System.nanoTime();
+        try (CranFieldReader reader = new CranFieldReader(corpusFile)) {
+            Iterator<String[]> values = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return reader.hasNext();
+                }
+
+                @Override
+                public String[] next() {
+                    CranFieldParserIndexer.CranFieldDocument cd = reader.next();
+                    return new String[]{cd.title, cd.author, cd.biblio, cd.body};
+                }
+            };
+            write(file, analyzerName, fingerprint, CORPUS_FIELDS, analyzer, values);
+        }
+        System.out.printf("Cached analyzed tokens for %s at %s (%.2fs)%n", analyzerName, file,
+                (System.nanoTime() - start) / 1e9);
+        return open(file, analyzerName, fingerprint);
+    }
+
+    /** Analyzed tokens of every query in a cran.qry-format file, keyed by qid. */
+    public static LinkedHashMap<String, List<String>> queryTokens(Path dir, String analyzerName, Analyzer analyzer,
+                                                                  String queriesFile) throws IOException {
+        File qf = new File(queriesFile);
+        LinkedHashMap<String, String> raw = CranFieldParserIndexer.loadRawQueries(queriesFile);
+        String fingerprint = AnalyzerIndexCache.corpusFingerprint(qf) + "/" + AnalyzerIndexCache.analyzerFingerprint(analyzer);
+        Path file = dir.resolve(analyzerName + "_" + qf.getName() + ".tok");
+        AnalyzedTokenCache cache = open(file, analyzerName, fingerprint);
+        if (cache == null) {
+            write(file, analyzerName, fingerprint, QUERY_FIELDS, analyzer,
+                    raw.values().stream().map(q -> new String[]{q}).iterator());
+            cache = open(file, analyzerName, fingerprint);
+        }
+        if (cache.records != raw.size()) throw new IOException("Token cache " + file + " does not match " + queriesFile);
+
+        LinkedHashMap<String, List<String>> tokens = new LinkedHashMap<>();
+        int record = 0;
+        for (String qid : raw.keySet()) tokens.put(qid, cache.terms(record++, 0));
+        return tokens;
+    }
+
+    public int numRecords() {
+        return records;
+    }
+
+    public int numTerms() {
+        return terms.length;
+    }
+
+    /** Position of {@code field} in this cache's field list, or -1. */
+    public int fieldIndex(String field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals(field)) return i;
+        }
+        return -1;
+    }
+
+    /** Decoded terms of one record's field, in token order. */
+    public List<String> terms(int record, int field) {
+        int entry = record * fields.length + field;
+        int chunk = chunkOf(entry);
+        ByteBuffer in = chunks[chunk].duplicate();
+        in.position((int) (starts[entry] - chunkBases[chunk]));
+        int count = readVInt(in);
+        List<String> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int code = readVInt(in);
+            if ((code & 1) != 0) readVInt(in);
+            readVInt(in);
+            readVInt(in);
+            out.add(terms[code >>> 1].utf8ToString());
+        }
+        return out;
+    }
+
+    /**
+     * A token stream that replays cached tokens. Create one per field and thread,
+     * and point it at a record with {@link #setRecord} before each document.
+     */
+    public final class ReplayTokenStream extends TokenStream {
+        private final BytesTermAttribute termAtt = addAttribute(BytesTermAttribute.class);
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+        private final int field;
+        private ByteBuffer in;
+        private int chunk = -1;
+        private int remaining;
+        private int startOffset, endOffset;
+
+        private ReplayTokenStream(int field) {
+            this.field = field;
+        }
+
+        public ReplayTokenStream setRecord(int record) {
+            if (record < 0 || record >= records) {
+                throw new IllegalArgumentException("record " + record + " out of range (0-" + (records - 1) + ")");
+            }
+            int entry = record * fields.length + field;
+            int c = chunkOf(entry);
+            if (c != chunk) {
+                in = chunks[c].duplicate();
+                chunk = c;
+            }
+            in.position((int) (starts[entry] - chunkBases[c]));
+            remaining = readVInt(in);
+            startOffset = endOffset = 0;
+            return this;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (remaining == 0) return false;
+            clearAttributes();
+            int code = readVInt(in);
+            termAtt.setBytesRef(terms[code >>> 1]);
+            posIncAtt.setPositionIncrement((code & 1) != 0 ? readVInt(in) : 1);
+            startOffset += readVInt(in);
+            int end = startOffset + readVInt(in);
+            endOffset = Math.max(endOffset, end);
+            offsetAtt.setOffset(startOffset, end);
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            offsetAtt.setOffset(endOffset, endOffset);
+        }
+    }
+
+    public ReplayTokenStream replay(String field) {
+        int f = fieldIndex(field);
+        if (f < 0) throw new IllegalArgumentException("Field " + field + " is not in this token cache");
+        return new ReplayTokenStream(f);
+    }
+
+    /**
+     * Tags each document with its record number so ReusableCranDocument indexes
+     * the cached tokens instead of analyzing the text. Records are matched by
+     * position, so {@code docs} must read the same file the cache was built from.
+     */
+    public Iterator<CranFieldParserIndexer.CranFieldDocument> replay(Iterator<CranFieldParserIndexer.CranFieldDocument> docs) {
+        return new Iterator<>() {
+            private int record;
+
+            @Override
+            public boolean hasNext() {
+                return docs.hasNext();
+            }
+
+            @Override
+            public CranFieldParserIndexer.CranFieldDocument next() {
+                CranFieldParserIndexer.CranFieldDocument cd = docs.next();
+                if (record >= records) throw new IllegalStateException("Corpus has more records than its token cache");
+                cd.tokenCache = AnalyzedTokenCache.this;
+                cd.tokenRecord = record++;
+                return cd;
+            }
+        };
+    }
+
+    /** Opens a cache file, or returns null when it is missing or was built for another analyzer or input. */
+    static AnalyzedTokenCache open(Path file, String analyzerName, String fingerprint) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < 8 + FOOTER_BYTES) return null;
+            ByteBuffer head = ByteBuffer.allocate(8);
+            ch.read(head, 0);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION) return null;
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            ch.read(footer, size - FOOTER_BYTES);
+            footer.flip();
+            int records = footer.getInt();
+            int numTerms = footer.getInt();
+            long dataStart = footer.getLong(), dataLength = footer.getLong();
+            long startsOffset = footer.getLong(), dictionaryOffset = footer.getLong();
+
+            MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, dataStart);
+            header.position(8);
+            if (!analyzerName.equals(readString(header)) || !fingerprint.equals(readString(header))) return null;
+            String[] fields = new String[header.getInt()];
+            for (int i = 0; i < fields.length; i++) fields[i] = readString(header);
+
+            long[] starts = new long[Math.multiplyExact(records, fields.length)];
+            ch.map(FileChannel.MapMode.READ_ONLY, startsOffset, (long) starts.length * Long.BYTES).asLongBuffer().get(starts);
+            MappedByteBuffer dictionary = ch.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+                    size - FOOTER_BYTES - dictionaryOffset);
+            BytesRef[] terms = new BytesRef[numTerms];
+            for (int i = 0; i < numTerms; i++) {
+                byte[] bytes = new byte[readVInt(dictionary)];
+                dictionary.get(bytes);
+                terms[i] = new BytesRef(bytes);
+            }
+
+            // split the token data into chunks at entry boundaries
+            List<Long> bases = new ArrayList<>();
+            List<ByteBuffer> chunks = new ArrayList<>();
+            int entry = 0;
+            while (entry < starts.length) {
+                long base = starts[entry], end = base;
+                int next = entry;
+                for (; next < starts.length; next++) {
+                    long entryEnd = next + 1 < starts.length ? starts[next + 1] : dataLength;
+                    if (entryEnd - base > MAX_CHUNK) break;
+                    end = entryEnd;
+                }
+                if (next == entry) throw new IOException("Token cache entry larger than " + MAX_CHUNK + " bytes in " + file);
+                bases.add(base);
+                chunks.add(ch.map(FileChannel.MapMode.READ_ONLY, dataStart + base, end - base));
+                entry = next;
+            }
+            long[] chunkBases = bases.stream().mapToLong(Long::longValue).toArray();
+            return new AnalyzedTokenCache(fields, records, terms, starts, chunkBases, chunks.toArray(new ByteBuffer[0]));
+        }
+    }
+
+    private static void write(Path file, String analyzerName, String fingerprint, String[] fields, Analyzer analyzer,
+                              Iterator<String[]> values) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Path startsTmp = file.resolveSibling(file.getFileName() + ".starts.tmp");
+        BytesRefHash dictionary = new BytesRefHash();
+        ByteArrayOutputStream tokens = new ByteArrayOutputStream(1 << 12);
+        try {
+            CountingOutputStream counter;
+            try (DataOutputStream out = new DataOutputStream(counter = new CountingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, analyzerName);
+                writeString(out, fingerprint);
+                out.writeInt(fields.length);
+                for (String field : fields) writeString(out, field);
+
+                long dataStart = counter.count;
+                int records = 0;
+                try (DataOutputStream starts = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(startsTmp), 1 << 16))) {
+                    while (values.hasNext()) {
+                        String[] record = values.next();
+                        for (int f = 0; f < fields.length; f++) {
+                            starts.writeLong(counter.count - dataStart);
+                            tokens.reset();
+                            int count = analyze(analyzer, fields[f], record[f] == null ? "" : record[f], dictionary, tokens);
+                            writeVInt(out, count);
+                            tokens.writeTo(out);
+                        }
+                        records++;
+                    }
+                }
+                long dataLength = counter.count - dataStart;
+
+                long startsOffset = counter.count;
+                Files.copy(startsTmp, out);
+                long dictionaryOffset = counter.count;
+                BytesRef term = new BytesRef();
+                for (int id = 0; id < dictionary.size(); id++) {
+                    dictionary.get(id, term);
+                    writeVInt(out, term.length);
+                    out.write(term.bytes, term.offset, term.length);
+                }
+
+                out.writeInt(records);
+                out.writeInt(dictionary.size());
+                out.writeLong(dataStart);
+                out.writeLong(dataLength);
+                out.writeLong(startsOffset);
+                out.writeLong(dictionaryOffset);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(startsTmp);
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Appends one field's tokens to {@code tokens} and returns how many there were. */
+    private static int analyze(Analyzer analyzer, String field, String text, BytesRefHash dictionary,
+                               ByteArrayOutputStream tokens) throws IOException {
+        int count = 0;
+        try (TokenStream ts = analyzer.tokenStream(field, text)) {
+            TermToBytesRefAttribute termAtt = ts.addAttribute(TermToBytesRefAttribute.class);
+            PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+            OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+            int lastStart = 0;
+            ts.reset();
+            while (ts.incrementToken()) {
+                int id = dictionary.add(termAtt.getBytesRef());
+                if (id < 0) id = -id - 1;
+                int posInc = posIncAtt.getPositionIncrement();
+                if (posInc == 1) {
+                    writeVInt(tokens, id << 1);
+                } else {
+                    writeVInt(tokens, id << 1 | 1);
+                    writeVInt(tokens, posInc);
+                }
+                writeVInt(tokens, offsetAtt.startOffset() - lastStart);
+                writeVInt(tokens, offsetAtt.endOffset() - offsetAtt.startOffset());
+                lastStart = offsetAtt.startOffset();
+                count++;
+            }
+            ts.end();
+        }
+        return count;
+    }
+
+    /** Counts the bytes written through it; DataOutputStream.size() stops at 2 GB. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static void writeVInt(OutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVInt(ByteBuffer in) {
+        byte b = in.get();
+        int v = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = in.get();
+            v |= (b & 0x7F) << shift;
+        }
+        return v;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,382 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps one index (and one open DirectoryReader) per analyzer.
+ * Similarity and field boosts are query-time settings, so every
+ * combination that shares an analyzer can search the same index.
+ *
+ * An index on disk is reused as long as the corpus fingerprint, analyzer
+ * fingerprint, layout version and {@link IndexLayout} stored in its commit data
+ * match the current corpus file, analysis chain, code and indexing options. Non-default layouts get their own
+ * directories, so indexes of several layouts can sit side by side.
+ * Indexes that do have to be (re)built replay the corpus tokens from an
+ * {@link AnalyzedTokenCache}, so the analysis chain runs once per analyzer and corpus.
+ *
+ * {@link IncrementalIndexer} deltas go to a separate copy of the index
+ * ({@link #ensureDeltaIndex}), so the indexes sweeps and evaluations search
+ * always hold exactly the corpus their fingerprint names.
+ */
+public class AnalyzerIndexCache implements Closeable {
+
+    static final String CORPUS_FINGERPRINT_KEY = "corpusFingerprint";
+    static final String ANALYZER_KEY = "analyzer";
+    /** {@link #analyzerFingerprint} of the analyzer the index was built with. */
+    static final String ANALYZER_FINGERPRINT_KEY = "analyzerFingerprint";
+    static final String LAYOUT_VERSION_KEY = "layoutVersion";
+    /** {@link IndexLayout#describe()} of the layout the index was built with. */
+    static final String LAYOUT_KEY = "layout";
+    /** "i/S" on each shard of a {@link ShardedIndex}. */
+    static final String SHARD_KEY = "shard";
+    /**
+     * Number of delta files an {@link IncrementalIndexer} applied. Such an index
+     * no longer carries {@link #CORPUS_FINGERPRINT_KEY}, only the fingerprint it
+     * started from under {@link #BASE_FINGERPRINT_KEY}.
+     */
+    static final String DELTAS_KEY = "deltas";
+    static final String BASE_FINGERPRINT_KEY = "baseFingerprint";
+
+    /** Bump whenever buildIndex changes which fields or doc values it writes. */
+    static final String LAYOUT_VERSION = "4";
+
+    /** Set to false to analyze the corpus text on every build instead of replaying {@link AnalyzedTokenCache}. */
+    public static final String TOKEN_CACHE_PROPERTY = "cranfield.tokenCache";
+
+    private final String rootIndexPath;
+    private final File corpusFile;
+    private final String fingerprint;
+    private final Map<String, DirectoryReader> readers = new LinkedHashMap<>();
+    private final List<Directory> directories = new ArrayList<>();
+    private IndexingOptions indexingOptions = IndexingOptions.fromSystemProperties();
+    private DirectoryOptions directoryOptions = DirectoryOptions.fromSystemProperties();
+    private boolean useTokenCache = !"false".equals(System.getProperty(TOKEN_CACHE_PROPERTY));
+
+    public AnalyzerIndexCache(String rootIndexPath, File corpusFile) throws IOException {
+        this.rootIndexPath = rootIndexPath;
+        this.corpusFile = corpusFile;
+        this.fingerprint = corpusFingerprint(corpusFile);
+    }
+
+    /** Options used for indexes this cache has to (re)build; defaults come from system properties. */
+    public AnalyzerIndexCache setIndexingOptions(IndexingOptions indexingOptions) {
+        this.indexingOptions = indexingOptions;
+        return this;
+    }
+
+    /** How {@link #getReader} opens indexes; defaults come from system properties. */
+    public AnalyzerIndexCache setDirectoryOptions(DirectoryOptions directoryOptions) {
+        this.directoryOptions = directoryOptions;
+        return this;
+    }
+
+    public AnalyzerIndexCache setUseTokenCache(boolean useTokenCache) {
+        this.useTokenCache = useTokenCache;
+        return this;
+    }
+
+    public boolean isUseTokenCache() {
+        return useTokenCache;
+    }
+
+    /** Where analyzed token caches for this index root are kept. */
+    public Path tokenCacheDir() {
+        return Paths.get(rootIndexPath + "tokens");
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Path indexPathFor(String analyzerName) {
+        return Paths.get(rootIndexPath + "index_" + analyzerName + indexingOptions.getLayout().pathSuffix());
+    }
+
+    public Path deltaPathFor(String analyzerName) {
+        return Paths.get(rootIndexPath + "delta_" + analyzerName + indexingOptions.getLayout().pathSuffix());
+    }
+
+    public Path shardPathFor(String analyzerName, int shards, int shard) {
+        return Paths.get(rootIndexPath + "shards" + shards + "_" + analyzerName + indexingOptions.getLayout().pathSuffix(),
+                "shard_" + shard);
+    }
+
+    /** What the commit of an up-to-date index for {@code analyzerName} carries. */
+    private Map<String, String> commitData(String analyzerName, Analyzer analyzer) throws IOException {
+        return Map.of(CORPUS_FINGERPRINT_KEY, fingerprint, ANALYZER_KEY, analyzerName,
+                ANALYZER_FINGERPRINT_KEY, analyzerFingerprint(analyzer),
+                LAYOUT_VERSION_KEY, LAYOUT_VERSION, LAYOUT_KEY, indexingOptions.getLayout().describe());
+    }
+
+    /**
+     * Returns the shared reader for this analyzer, building the index first
+     * if there is none on disk or it was built from a different corpus.
+     */
+    public synchronized DirectoryReader getReader(String analyzerName, Analyzer analyzer) throws Exception {
+        DirectoryReader reader = readers.get(analyzerName);
+        if (reader != null) return reader;
+
+        Directory dir = directoryOptions.open(ensureIndex(analyzerName, analyzer));
+        try {
+            reader = DirectoryReader.open(dir);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(dir);
+            throw e;
+        }
+        directories.add(dir);
+        readers.put(analyzerName, reader);
+        return reader;
+    }
+
+    /**
+     * Makes sure an up-to-date index for this analyzer is on disk, building it
+     * only when missing or stale, and returns its path without opening a reader.
+     */
+    public synchronized Path ensureIndex(String analyzerName, Analyzer analyzer) throws Exception {
+        Path indexPath = indexPathFor(analyzerName);
+        if (isUpToDate(indexPath, analyzerName, analyzer)) {
+            System.out.println("Reusing index for " + analyzerName + " at " + indexPath);
+        } else {
+            System.out.println("Building index for " + analyzerName + " at " + indexPath);
+            Map<String, String> commitData = commitData(analyzerName, analyzer);
+            CranFieldParserIndexer.IndexStats stats;
+            if (useTokenCache) {
+                AnalyzedTokenCache tokens = AnalyzedTokenCache.forCorpus(tokenCacheDir(), analyzerName, analyzer,
+                        corpusFile, fingerprint);
+                try (CranFieldReader reader = new CranFieldReader(corpusFile)) {
+                    stats = CranFieldParserIndexer.buildIndex(indexPath, tokens.replay(reader), analyzer, commitData,
+                            indexingOptions);
+                }
+            } else {
+                stats = CranFieldParserIndexer.buildIndex(indexPath, corpusFile, analyzer, commitData, indexingOptions);
+            }
+            System.out.println("Indexed " + analyzerName + ": " + stats);
+        }
+        return indexPath;
+    }
+
+    /**
+     * Returns the index {@link IncrementalIndexer} applies deltas to: a copy of
+     * the index from {@link #ensureIndex} in its own directory. The copy keeps
+     * the deltas applied so far and is only replaced, by a fresh copy, when it
+     * was made from another corpus, code version or layout.
+     */
+    public synchronized Path ensureDeltaIndex(String analyzerName, Analyzer analyzer) throws Exception {
+        Path indexPath = ensureIndex(analyzerName, analyzer);
+        Path deltaPath = deltaPathFor(analyzerName);
+        Map<String, String> expected = new HashMap<>(commitData(analyzerName, analyzer));
+        expected.remove(CORPUS_FINGERPRINT_KEY);
+        Map<String, String> userData = lastCommitData(deltaPath);
+        if (userData != null && hasAll(userData, expected)
+                && fingerprint.equals(userData.getOrDefault(BASE_FINGERPRINT_KEY, userData.get(CORPUS_FINGERPRINT_KEY)))) {
+            System.out.println("Reusing delta index for " + analyzerName + " at " + deltaPath
+                    + " (" + userData.getOrDefault(DELTAS_KEY, "0") + " delta file(s) applied)");
+            return deltaPath;
+        }
+        System.out.println("Copying index for " + analyzerName + " to " + deltaPath);
+        Files.createDirectories(deltaPath);
+        try (Directory from = FSDirectory.open(indexPath); Directory to = FSDirectory.open(deltaPath)) {
+            for (String file : to.listAll()) to.deleteFile(file);
+            for (String file : from.listAll()) {
+                if (!file.equals("write.lock")) to.copyFrom(from, file, file, IOContext.DEFAULT);
+            }
+            to.sync(Arrays.asList(to.listAll()));
+            to.syncMetaData();
+        }
+        return deltaPath;
+    }
+
+    /**
+     * Like {@link #ensureIndex}, for the {@code shards} shard indexes of a {@link ShardedIndex};
+     * all shards are rebuilt together when any of them is missing or stale.
+     */
+    public synchronized List<Path> ensureShards(String analyzerName, Analyzer analyzer, int shards) throws Exception {
+        if (shards < 1) throw new IllegalArgumentException("shards must be >= 1: " + shards);
+        List<Path> paths = new ArrayList<>(shards);
+        boolean upToDate = true;
+        for (int s = 0; s < shards; s++) {
+            paths.add(shardPathFor(analyzerName, shards, s));
+            Map<String, String> expected = new HashMap<>(commitData(analyzerName, analyzer));
+            expected.put(SHARD_KEY, s + "/" + shards);
+            upToDate &= hasCommitData(paths.get(s), expected);
+        }
+        if (upToDate) {
+            System.out.println("Reusing " + shards + " shards for " + analyzerName);
+            return paths;
+        }
+        System.out.println("Building " + shards + " shards for " + analyzerName + " under " + paths.getFirst().getParent());
+        Map<String, String> commitData = commitData(analyzerName, analyzer);
+        long start = System.nanoTime();
+        List<CranFieldParserIndexer.IndexStats> stats;
+        try (CranFieldReader reader = new CranFieldReader(corpusFile)) {
+            Iterator<CranFieldParserIndexer.CranFieldDocument> docs = reader;
+            if (useTokenCache) {
+                docs = AnalyzedTokenCache.forCorpus(tokenCacheDir(), analyzerName, analyzer, corpusFile, fingerprint)
+                        .replay(reader);
+            }
+            stats = ShardedIndex.build(paths, docs, analyzer, commitData, indexingOptions);
+        }
+        for (int s = 0; s < shards; s++) System.out.println("  shard " + s + ": " + stats.get(s));
+        System.out.printf("Indexed %s into %d shards in %.2fs%n", analyzerName, shards, (System.nanoTime() - start) / 1e9);
+        return paths;
+    }
+
+    private boolean isUpToDate(Path indexPath, String analyzerName, Analyzer analyzer) throws IOException {
+        return hasCommitData(indexPath, commitData(analyzerName, analyzer));
+    }
+
+    /** True when the index at {@code indexPath} exists and its last commit carries all of {@code expected}. */
+    private static boolean hasCommitData(Path indexPath, Map<String, String> expected) throws IOException {
+        Map<String, String> userData = lastCommitData(indexPath);
+        return userData != null && hasAll(userData, expected);
+    }
+
+    private static boolean hasAll(Map<String, String> userData, Map<String, String> expected) {
+        for (Map.Entry<String, String> e : expected.entrySet()) {
+            if (!e.getValue().equals(userData.get(e.getKey()))) return false;
+        }
+        return true;
+    }
+
+    /** Commit data of the last commit of the index at {@code indexPath}, or null when there is no index. */
+    static Map<String, String> lastCommitData(Path indexPath) throws IOException {
+        if (!Files.isDirectory(indexPath)) return null;
+        try (Directory dir = FSDirectory.open(indexPath)) {
+            if (!DirectoryReader.indexExists(dir)) return null;
+            return DirectoryReader.listCommits(dir).getLast().getUserData();
+        }
+    }
+
+    /**
+     * CRC32 of the corpus contents plus its length. Cheap enough to compute
+     * on every run and changes whenever the collection text changes.
+     */
+    public static String corpusFingerprint(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return Long.toHexString(file.length()) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    /** Probe text for {@link #analyzerFingerprint}: case, punctuation, numbers, stop words, stems and possessives. */
+    private static final String ANALYZER_PROBE = "The Boundary-Layer's flows AND shock waves: heated plates at"
+            + " Mach 2.5, e.g. NACA TN-1234 (1956); running, ran and runs over aerofoils' surfaces.";
+
+    /** The stage a {@link TokenFilter} reads from, for walking an analysis chain. */
+    private static final Field TOKEN_FILTER_INPUT;
+
+    static {
+        try {
+            TOKEN_FILTER_INPUT = TokenFilter.class.getDeclaredField("input");
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Analyzer class plus a CRC32 of its configuration and behaviour in each
+     * corpus field, so indexes and token caches are rebuilt when the analysis
+     * chain changes even though the analyzer keeps its name. The configuration
+     * is the class of every stage of the token stream with the contents of its
+     * word sets (stop words, stem exclusions), which catches changes the probe
+     * text does not exercise; the behaviour is the tokens (terms, position
+     * increments and offsets) produced for a fixed probe text, which catches
+     * changes inside a stage, e.g. a tokenizer setting.
+     */
+    public static String analyzerFingerprint(Analyzer analyzer) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer ints = ByteBuffer.allocate(3 * Integer.BYTES);
+        for (String field : AnalyzedTokenCache.CORPUS_FIELDS) {
+            crc.update(field.getBytes(StandardCharsets.UTF_8));
+            try (TokenStream ts = analyzer.tokenStream(field, ANALYZER_PROBE)) {
+                updateWithChain(crc, ts);
+                TermToBytesRefAttribute termAtt = ts.addAttribute(TermToBytesRefAttribute.class);
+                PositionIncrementAttribute posIncAtt = ts.addAttribute(PositionIncrementAttribute.class);
+                OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+                ts.reset();
+                while (ts.incrementToken()) {
+                    BytesRef term = termAtt.getBytesRef();
+                    crc.update(term.bytes, term.offset, term.length);
+                    ints.clear();
+                    ints.putInt(posIncAtt.getPositionIncrement()).putInt(offsetAtt.startOffset())
+                            .putInt(offsetAtt.endOffset()).flip();
+                    crc.update(ints);
+                }
+                ts.end();
+            }
+        }
+        return analyzer.getClass().getName() + "-" + Long.toHexString(crc.getValue());
+    }
+
+    /** Each stage of {@code ts}, outermost first: its class, then the sorted words of its {@link CharArraySet} fields. */
+    private static void updateWithChain(CRC32 crc, TokenStream ts) {
+        TokenStream stage = ts;
+        while (stage != null) {
+            crc.update(stage.getClass().getName().getBytes(StandardCharsets.UTF_8));
+            for (Class<?> c = stage.getClass(); c != TokenStream.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (f.getType() != CharArraySet.class || Modifier.isStatic(f.getModifiers())) continue;
+                    CharArraySet set = (CharArraySet) fieldValue(f, stage);
+                    if (set == null) continue;
+                    List<String> words = new ArrayList<>(set.size());
+                    for (Object w : set) words.add(w instanceof char[] chars ? new String(chars) : String.valueOf(w));
+                    Collections.sort(words);
+                    crc.update(f.getName().getBytes(StandardCharsets.UTF_8));
+                    for (String w : words) {
+                        crc.update(w.getBytes(StandardCharsets.UTF_8));
+                        crc.update(0);
+                    }
+                }
+            }
+            stage = stage instanceof TokenFilter filter ? (TokenStream) fieldValue(TOKEN_FILTER_INPUT, filter) : null;
+        }
+    }
+
+    /** The field's value, or null when it cannot be read; the probe text still covers that stage. */
+    private static Object fieldValue(Field f, Object target) {
+        try {
+            f.setAccessible(true);
+            return f.get(target);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // readers first, then the directories they were opened on
+        List<Closeable> all = new ArrayList<>(readers.values());
+        all.addAll(directories);
+        readers.clear();
+        directories.clear();
+        IOUtils.close(all);
+    }
+}
@@ -0,0 +1,103 @@
+package org.cranfield;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Optional collaborators for {@link CranFieldParserIndexer#generateTrecResults}.
+ * Everything is off by default, which gives the plain sequential run; only
+ * {@link #fromSystemProperties()} picks up {@code -Dcranfield.rerank} and
+ * {@code -Dcranfield.rm3}.
+ */
+public class BatchSearchOptions {
+
+    private ExecutorService executor;
+    private QueryMetrics metrics;
+    private QueryResultCache cache;
+    private Integer totalHitsThreshold;
+    private TwoStageSearch reranker;
+    private Rm3Expander expander;
+
+    public static BatchSearchOptions defaults() {
+        return new BatchSearchOptions();
+    }
+
+    /** Defaults plus the re-ranker of {@code -Dcranfield.rerank} and the expander of {@code -Dcranfield.rm3}, if set. */
+    public static BatchSearchOptions fromSystemProperties() {
+        return defaults().reranker(TwoStageSearch.fromSystemProperties()).expander(Rm3Expander.fromSystemProperties());
+    }
+
+    /** Runs queries concurrently on this executor; output order is unchanged. */
+    public BatchSearchOptions executor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /** Records per-query parse/search/materialize latency. */
+    public BatchSearchOptions metrics(QueryMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /** Serves repeated queries from this result cache. */
+    public BatchSearchOptions cache(QueryResultCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /** Total-hits threshold for {@link TopKSearch}; defaults to {@link TopKSearch#threshold(int)}. */
+    public BatchSearchOptions totalHitsThreshold(int totalHitsThreshold) {
+        this.totalHitsThreshold = totalHitsThreshold;
+        return this;
+    }
+
+    /**
+     * Ranks with BM25 candidates plus re-rankers instead of the searcher's own similarity;
+     * null (the default) for single-stage search.
+     */
+    public BatchSearchOptions reranker(TwoStageSearch reranker) {
+        this.reranker = reranker;
+        return this;
+    }
+
+    /**
+     * Expands each query with RM3 feedback terms before the final search; null (the default) for none.
+     */
+    public BatchSearchOptions expander(Rm3Expander expander) {
+        this.expander = expander;
+        return this;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    public QueryResultCache getCache() {
+        return cache;
+    }
+
+    public TwoStageSearch getReranker() {
+        return reranker;
+    }
+
+    public Rm3Expander getExpander() {
+        return expander;
+    }
+
+    /**
+     * Tag of the re-ranker and expander in use, e.g. {@code rerank-BM25+LMDirichlet@200+rm3-10-10-0.50},
+     * for run names and result cache keys; empty when neither is set.
+     */
+    public String variant() {
+        String variant = reranker == null ? "" : "rerank-" + reranker.name() + "@" + reranker.getCandidates();
+        if (expander != null) variant += (variant.isEmpty() ? "" : "+") + expander.name();
+        return variant;
+    }
+
+    public int getTotalHitsThreshold(int topK) {
+        return totalHitsThreshold != null ? totalHitsThreshold : TopKSearch.threshold(topK);
+    }
+}
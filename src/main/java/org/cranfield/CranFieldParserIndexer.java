@@ -12,13 +12,15 @@ import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.TextField;
 
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
 
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -30,6 +32,7 @@ import org.apache.lucene.search.Query;
 
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.TermQuery;
 
 import org.apache.lucene.search.similarities.BM25Similarity;
@@ -39,7 +42,10 @@ import org.apache.lucene.search.similarities.LMJelinekMercerSimilarity;
 
 import org.apache.lucene.index.Term;
 
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 
 import java.io.*;
 
@@ -47,14 +53,43 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CranFieldParserIndexer {
 
-    private static final String ROOT_INDEX_PATH = "index/";
+    static final String ROOT_INDEX_PATH = "index/";
     private static final Path INTERACTIVE_INDEX_PATH =  Paths.get(ROOT_INDEX_PATH+"index");
-    private static final String CRAN_FILE = "cran/cran.all.1400";
+    static final String CRAN_FILE = "cran/cran.all.1400";
 
     private static final int DEFAULT_TOP_K = 100;
+    static final String RUN_ID = "cranLucene";
+    public static final Set<String> DISPLAY_FIELDS = Set.of("title", "body");
+
+    public static final String[] ANALYZER_NAMES = {"StandardAnalyzer", "EnglishAnalyzer", "SimpleAnalyzer", "WhitespaceAnalyzer", "CustomAnalyzer"};
+    /** Names of the similarities returned by {@link #makeSearcherWithSimilarity}, indexed by simChoice - 1. */
+    public static final String[] SIMILARITY_NAMES = {"TFIDF", "BM25", "LMDirichlet", "LMJelinekMercer"};
+
+    // similarity parameters, e.g. from SimilarityTuner; defaults are Lucene's BM25 and the usual LM settings
+    static final float BM25_K1 = floatProperty("cranfield.bm25.k1", 1.2f);
+    static final float BM25_B = floatProperty("cranfield.bm25.b", 0.75f);
+    static final float LM_MU = floatProperty("cranfield.lm.mu", 1500f);
+    static final float LM_LAMBDA = floatProperty("cranfield.lm.lambda", 0.7f);
+
+    private static float floatProperty(String name, float def) {
+        String v = System.getProperty(name);
+        return v == null || v.isBlank() ? def : Float.parseFloat(v.trim());
+    }
+
+    /** Path to an external trec_eval binary; when set the sweep uses it instead of {@link TrecEvaluator}. */
+    private static final String TREC_EVAL_PROPERTY = "cranfield.trec_eval";
 
     public static class CranFieldDocument {
         public String id = "";
@@ -62,71 +97,227 @@ public class CranFieldParserIndexer {
         public String author = "";
         public String biblio = "";
         public String body = "";
+        /** When set, the analyzed fields are replayed from this cache's record instead of analyzing the text. */
+        AnalyzedTokenCache tokenCache;
+        int tokenRecord = -1;
     }
 
     public static List<CranFieldDocument> parseCranField(File cranAll) throws IOException {
         List<CranFieldDocument> docs = new ArrayList<>();
-        try (BufferedReader r = new BufferedReader(new FileReader(cranAll))) {
-            String line;
-            CranFieldDocument cur = null;
-            String section = null;
-            StringBuilder sb = new StringBuilder();
-            while ((line = r.readLine()) != null) {
-                line = line.trim();
-                if (line.startsWith(".I ")) {
-                    if (cur != null) {
-                        assignSection(cur, section, sb.toString().trim());
-                        docs.add(cur);
+        try (CranFieldReader reader = new CranFieldReader(cranAll)) {
+            reader.forEachRemaining(docs::add);
+        }
+        return docs;
+    }
+
+    /**
+     * One Lucene document whose fields are created once and refilled for every
+     * Cranfield record, so indexing does not allocate fields per document.
+     * Fields are laid out as the given {@link IndexLayout} says.
+     * Not thread-safe: use one instance per indexing thread.
+     */
+    static final class ReusableCranDocument {
+        private static final String[] FIELDS = AnalyzedTokenCache.CORPUS_FIELDS;
+
+        final Document doc = new Document();
+        private final IndexLayout layout;
+        private final StringField id = new StringField("id", "", Field.Store.YES);
+        private final SortedDocValuesField idDocValues = new SortedDocValuesField("id", new BytesRef());
+        private final BytesRefBuilder idBytes = new BytesRefBuilder();
+        // title, author, biblio, body; null when the layout neither indexes nor stores the field
+        private final Field[] text = new Field[FIELDS.length];
+
+        ReusableCranDocument() {
+            this(IndexLayout.defaults());
+        }
+
+        ReusableCranDocument(IndexLayout layout) {
+            this.layout = layout;
+            doc.add(id);
+            doc.add(idDocValues);
+            for (int f = 0; f < FIELDS.length; f++) {
+                IndexLayout.FieldLayout fl = layout.get(FIELDS[f]);
+                if (!fl.indexed() && !fl.stored()) continue;
+                text[f] = new Field(FIELDS[f], "", fl.fieldType(true));
+                doc.add(text[f]);
+            }
+        }
+
+        // pre-analyzed variant: token streams replayed from an AnalyzedTokenCache plus the stored values
+        private AnalyzedTokenCache replayCache;
+        private Document replayDoc;
+        private AnalyzedTokenCache.ReplayTokenStream[] replayStreams;
+        private final StoredField[] stored = new StoredField[FIELDS.length];
+
+        private static String[] values(CranFieldDocument cd) {
+            return new String[]{cd.title, cd.author, cd.biblio, cd.body};
+        }
+
+        Document set(CranFieldDocument cd) {
+            String docId = cd.id == null ? "" : cd.id;
+            id.setStringValue(docId);
+            // IndexWriter copies doc values bytes on addDocument, so the builder can be reused
+            idBytes.copyChars(docId);
+            idDocValues.setBytesValue(idBytes.get());
+            if (cd.tokenCache != null) return setReplayed(cd);
+            String[] values = values(cd);
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (text[f] != null) text[f].setStringValue(values[f] == null ? "" : values[f]);
+            }
+            return doc;
+        }
+
+        private Document setReplayed(CranFieldDocument cd) {
+            if (cd.tokenCache != replayCache) {
+                replayCache = cd.tokenCache;
+                replayStreams = new AnalyzedTokenCache.ReplayTokenStream[FIELDS.length];
+                // same field order as doc, so stored fields come back in the same order
+                replayDoc = new Document();
+                replayDoc.add(id);
+                replayDoc.add(idDocValues);
+                for (int f = 0; f < FIELDS.length; f++) {
+                    IndexLayout.FieldLayout fl = layout.get(FIELDS[f]);
+                    if (fl.indexed()) {
+                        replayStreams[f] = replayCache.replay(FIELDS[f]);
+                        replayDoc.add(new Field(FIELDS[f], replayStreams[f], fl.fieldType(false)));
+                    }
+                    if (fl.stored()) {
+                        stored[f] = new StoredField(FIELDS[f], "");
+                        replayDoc.add(stored[f]);
                     }
-                    cur = new CranFieldDocument();
-                    cur.id = line.substring(3).trim();
-                    section = null;
-                    sb.setLength(0);
-                } else if (line.equals(".T") || line.equals(".A") || line.equals(".B") || line.equals(".W")) {
-                    if (cur != null && section != null) assignSection(cur, section, sb.toString().trim());
-                    section = line.substring(1);
-                    sb.setLength(0);
-                } else if (section != null) {
-                    if (sb.length() > 0) sb.append(' ');
-                    sb.append(line);
                 }
             }
-            if (cur != null) {
-                assignSection(cur, section, sb.toString().trim());
-                docs.add(cur);
+            String[] values = values(cd);
+            for (int f = 0; f < FIELDS.length; f++) {
+                if (replayStreams[f] != null) replayStreams[f].setRecord(cd.tokenRecord);
+                if (stored[f] != null) stored[f].setStringValue(values[f] == null ? "" : values[f]);
             }
+            return replayDoc;
         }
-        return docs;
     }
 
-    private static void assignSection(CranFieldDocument doc, String section, String text) {
-        if (section == null) return;
-        switch (section) {
-            case "T": doc.title = text; break;
-            case "A": doc.author = text; break;
-            case "B": doc.biblio = text; break;
-            case "W": doc.body = text; break;
+    /** What a buildIndex call produced: documents added, wall time, and the committed index size. */
+    public record IndexStats(int docs, double seconds, long bytesOnDisk, int segments) {
+        public double docsPerSecond() {
+            return seconds > 0 ? docs / seconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d docs in %.2fs (%.0f docs/s), %.2f MB on disk, %d segment(s)",
+                    docs, seconds, docsPerSecond(), bytesOnDisk / (1024.0 * 1024.0), segments);
+        }
+    }
+
+    public static int buildIndex(Path indexPath, List<CranFieldDocument> docs, Analyzer analyzer) throws Exception {
+        return buildIndex(indexPath, docs.iterator(), analyzer, Map.of(), IndexingOptions.defaults()).docs();
+    }
+
+    public static int buildIndex(Path indexPath, List<CranFieldDocument> docs, Analyzer analyzer,
+                                 Map<String, String> commitData) throws Exception {
+        return buildIndex(indexPath, docs.iterator(), analyzer, commitData, IndexingOptions.defaults()).docs();
+    }
+
+    /** Streams the collection file straight into the index; memory use does not grow with the corpus. */
+    public static int buildIndex(Path indexPath, File cranAll, Analyzer analyzer,
+                                 Map<String, String> commitData) throws Exception {
+        return buildIndex(indexPath, cranAll, analyzer, commitData, IndexingOptions.defaults()).docs();
+    }
+
+    public static IndexStats buildIndex(Path indexPath, File cranAll, Analyzer analyzer,
+                                        Map<String, String> commitData, IndexingOptions options) throws Exception {
+        try (CranFieldReader reader = new CranFieldReader(cranAll)) {
+            return buildIndex(indexPath, reader, analyzer, commitData, options);
         }
     }
 
-    public static void buildIndex(Path indexPath, List<CranFieldDocument> docs, Analyzer analyzer) throws Exception {
-        var dir = FSDirectory.open(indexPath);
-        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+    /**
+     * Indexes documents as the iterator produces them. With more than one indexing
+     * thread the iterator is drained by the calling thread into a bounded queue and
+     * the workers call addDocument concurrently, so doc ids no longer follow file order.
+     */
+    public static IndexStats buildIndex(Path indexPath, Iterator<CranFieldDocument> docs, Analyzer analyzer,
+                                        Map<String, String> commitData, IndexingOptions options) throws Exception {
+        long start = System.nanoTime();
+        IndexWriterConfig iwc = options.apply(new IndexWriterConfig(analyzer));
         iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        try (IndexWriter writer = new IndexWriter(dir, iwc)) {
-            for (CranFieldDocument cd : docs) {
-                Document d = new Document();
-                d.add(new StringField("id", cd.id == null ? "" : cd.id, Field.Store.YES));
-                d.add(new TextField("title", cd.title == null ? "" : cd.title, Field.Store.YES));
-                d.add(new TextField("author", cd.author == null ? "" : cd.author, Field.Store.YES));
-                d.add(new TextField("biblio", cd.biblio == null ? "" : cd.biblio, Field.Store.NO));
-                d.add(new TextField("body", cd.body == null ? "" : cd.body, Field.Store.YES));
-                writer.addDocument(d);
+        int count;
+        try (FSDirectory dir = FSDirectory.open(indexPath);
+             IndexWriter writer = new IndexWriter(dir, iwc)) {
+            if (options.getThreads() == 1) {
+                count = 0;
+                ReusableCranDocument d = new ReusableCranDocument(options.getLayout());
+                while (docs.hasNext()) {
+                    writer.addDocument(d.set(docs.next()));
+                    count++;
+                }
+            } else {
+                count = addDocumentsConcurrently(writer, docs, options.getThreads(), options.getLayout());
             }
+            if (options.isForceMerge()) writer.forceMerge(1);
+            if (!commitData.isEmpty()) writer.setLiveCommitData(commitData.entrySet());
             writer.commit();
+
+            int segments = SegmentInfos.readLatestCommit(dir).size();
+            return new IndexStats(count, (System.nanoTime() - start) / 1e9, directorySize(dir), segments);
+        }
+    }
+
+    private static final CranFieldDocument END_OF_DOCS = new CranFieldDocument();
+
+    private static int addDocumentsConcurrently(IndexWriter writer, Iterator<CranFieldDocument> docs,
+                                                int threads, IndexLayout layout) throws Exception {
+        BlockingQueue<CranFieldDocument> queue = new ArrayBlockingQueue<>(threads * 256);
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                ReusableCranDocument d = new ReusableCranDocument(layout);
+                CranFieldDocument cd;
+                while ((cd = queue.take()) != END_OF_DOCS) {
+                    writer.addDocument(d.set(cd));
+                    count.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        try {
+            while (docs.hasNext()) {
+                CranFieldDocument cd = docs.next();
+                // stop feeding if a worker died, otherwise put() could block forever
+                while (!queue.offer(cd, 100, TimeUnit.MILLISECONDS)) {
+                    for (Future<?> w : workers) {
+                        if (w.isDone()) await(w);
+                    }
+                }
+            }
+            for (int t = 0; t < threads; t++) queue.put(END_OF_DOCS);
+            for (Future<?> w : workers) await(w);
+        } finally {
+            pool.shutdownNow();
+        }
+        return count.get();
+    }
+
+    /** The task's result, rethrowing what the task threw rather than the ExecutionException wrapping it. */
+    static <T> T await(Future<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
         }
     }
 
+    private static long directorySize(Directory dir) throws IOException {
+        long bytes = 0;
+        for (String file : dir.listAll()) {
+            if (file.equals(IndexWriter.WRITE_LOCK_NAME)) continue;
+            bytes += dir.fileLength(file);
+        }
+        return bytes;
+    }
+
     public static Analyzer chooseAnalyzer(Scanner sc) {
         System.out.println("Select Analyzer (default = EnglishAnalyzer):");
         System.out.println("1: StandardAnalyzer");
@@ -145,14 +336,26 @@ public class CranFieldParserIndexer {
         };
     }
 
-    private static MultiFieldQueryParser makeParser(Analyzer analyzer, float titleBoost, float bodyBoost) {
+    static MultiFieldQueryParser makeParser(Analyzer analyzer, float titleBoost, float bodyBoost) {
         String[] fields = {"title", "body"};
         Map<String, Float> boosts = Map.of("title", titleBoost, "body", bodyBoost);
         return new MultiFieldQueryParser(fields, analyzer, boosts);
     }
 
-    public static void interactiveSearch(IndexSearcher searcher, Analyzer analyzer, Scanner sc, float titleBoost, float bodyBoost) throws IOException {
+    public static void interactiveSearch(IndexSearcher searcher, Analyzer analyzer, Scanner sc, float titleBoost, float bodyBoost) throws Exception {
+        interactiveSearch(searcher, analyzer, sc, titleBoost, bodyBoost, null);
+    }
+
+    /**
+     * Interactive loop. When {@code cache} is non-null, a query that analyzes to the
+     * same terms with the same filters as an earlier one is answered from the cache.
+     */
+    public static void interactiveSearch(IndexSearcher searcher, Analyzer analyzer, Scanner sc, float titleBoost, float bodyBoost,
+                                         QueryResultCache cache) throws Exception {
         MultiFieldQueryParser parser = makeParser(analyzer, titleBoost, bodyBoost);
+        DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+        SnippetGenerator snippets = SnippetGenerator.fromSystemProperties(analyzer, "[", "]");
+        QueryMetrics metrics = new QueryMetrics();
         System.out.println("Enter queries. Type ':q' to return to menu.");
         while (true) {
             System.out.print("\nQuery: ");
@@ -162,11 +365,12 @@ public class CranFieldParserIndexer {
             if (line.isEmpty()) continue;
 
             // optional filters
-            System.out.print("Filter by author (optional): ");
+            System.out.print("Filter by author, comma-separated for any of several (optional): ");
             String authorFilter = sc.nextLine().trim();
-            System.out.print("Filter by title keyword (optional): ");
+            System.out.print("Filter by title keyword, comma-separated for any of several (optional): ");
             String titleFilter = sc.nextLine().trim();
 
+            long t0 = System.nanoTime();
             Query mainQuery;
             try {
                 mainQuery = parser.parse(line);
@@ -175,27 +379,68 @@ public class CranFieldParserIndexer {
                 continue;
             }
 
-            BooleanQuery.Builder combined = new BooleanQuery.Builder();
-            combined.add(mainQuery, BooleanClause.Occur.MUST);
-            if (!authorFilter.isEmpty()) {
-                combined.add(new TermQuery(new Term("author", authorFilter)), BooleanClause.Occur.FILTER);
-            }
-            if (!titleFilter.isEmpty()) {
-                combined.add(new TermQuery(new Term("title", titleFilter)), BooleanClause.Occur.FILTER);
+            Query query = withFilters(mainQuery, authorFilter, titleFilter);
+            long t1 = System.nanoTime();
+            long[] scored = new long[1];
+            QueryResultCache.Search search = () -> {
+                TopKSearch.Result r = TopKSearch.search(searcher, query, 10, TopKSearch.threshold(10));
+                scored[0] = r.docsScored();
+                return r.topDocs();
+            };
+            TopDocs topDocs = cache == null ? search.run()
+                    : cache.get(cache.key(searcher, query, "", 10), search);
+            long t2 = System.nanoTime();
+            SnippetGenerator.Snippet[] hitSnippets = snippets.snippets(searcher, query, topDocs.scoreDocs);
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+                ScoreDoc sd = topDocs.scoreDocs[i];
+                out.append(String.format("%2d. id=%s score=%.4f title=%s\n    %s\n",
+                        i + 1, ids.get(sd.doc), sd.score, hitSnippets[i].title(), hitSnippets[i].body()));
             }
+            long t3 = System.nanoTime();
+            metrics.record(t1 - t0, t2 - t1, t3 - t2);
+            metrics.addWallTime(t3 - t0);
+            metrics.addDocsScored(scored[0]);
+
+            System.out.println("Total hits (approx): " + topDocs.totalHits + ", docs scored: " + scored[0]);
+            System.out.print(out);
+            System.out.printf("Latency: parse %.3f ms | search %.3f ms | fetch %.3f ms%n",
+                    (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6);
+        }
+        if (metrics.get(QueryMetrics.Phase.TOTAL).getCount() > 0) {
+            System.out.println("Session latency: " + metrics.summary());
+        }
+        if (cache != null) System.out.println("Query cache: " + cache);
+        System.out.println("Snippet cache: " + snippets);
+    }
 
-            TopDocs topDocs = searcher.search(combined.build(), 10);
-            System.out.println("Total hits (approx): " + topDocs.totalHits);
-            int rank = 1;
-            for (ScoreDoc sd : topDocs.scoreDocs) {
-                Document doc = searcher.storedFields().document(sd.doc);
-                String snippet = doc.get("body");
-                if (snippet != null && snippet.length() > 200) snippet = snippet.substring(0, 200) + "...";
-                System.out.printf("%2d. id=%s score=%.4f title=%s\n    %s\n",
-                        rank, doc.get("id"), sd.score, doc.get("title"), snippet);
-                rank++;
-            }
+    /**
+     * Adds the optional author / title-keyword filters as non-scoring clauses; empty filters are skipped.
+     * A filter may list several comma-separated values, which matches documents with any of them.
+     */
+    public static Query withFilters(Query mainQuery, String authorFilter, String titleFilter) {
+        BooleanQuery.Builder combined = new BooleanQuery.Builder();
+        combined.add(mainQuery, BooleanClause.Occur.MUST);
+        if (!authorFilter.isEmpty()) {
+            combined.add(filter("author", authorFilter), BooleanClause.Occur.FILTER);
+        }
+        if (!titleFilter.isEmpty()) {
+            combined.add(filter("title", titleFilter), BooleanClause.Occur.FILTER);
+        }
+        return combined.build();
+    }
+
+    private static Query filter(String field, String values) {
+        if (values.indexOf(',') < 0) return new TermQuery(new Term(field, values));
+        // sorted and de-duplicated, so the same set in another order is the same cached filter
+        SortedSet<String> terms = new TreeSet<>();
+        for (String v : values.split(",")) {
+            if (!v.isBlank()) terms.add(v.trim());
         }
+        if (terms.size() == 1) return new TermQuery(new Term(field, terms.first()));
+        List<BytesRef> bytes = new ArrayList<>(terms.size());
+        for (String t : terms) bytes.add(new BytesRef(t));
+        return new TermInSetQuery(field, bytes);
     }
 
     public static String analyzeQuery(String text, Analyzer analyzer) throws IOException {
@@ -213,6 +458,15 @@ public class CranFieldParserIndexer {
     }
 
     public static LinkedHashMap<String, String> loadQueries(String queriesFile, Analyzer analyzer) throws IOException {
+        LinkedHashMap<String, String> queries = loadRawQueries(queriesFile);
+        for (Map.Entry<String, String> e : queries.entrySet()) {
+            e.setValue(analyzeQuery(e.getValue(), analyzer));
+        }
+        return queries;
+    }
+
+    /** The .W text of every query in cran.qry, keyed by its sequential qid, before any analysis. */
+    public static LinkedHashMap<String, String> loadRawQueries(String queriesFile) throws IOException {
         LinkedHashMap<String, String> queries = new LinkedHashMap<>();
         int id = 1;
 
@@ -225,8 +479,7 @@ public class CranFieldParserIndexer {
                 line = line.trim();
                 if (line.startsWith(".I")) {
                     if (!sb.isEmpty()) {
-                        String analyzedQuery = analyzeQuery(sb.toString().trim(), analyzer);
-                        queries.put(String.valueOf(id), analyzedQuery);
+                        queries.put(String.valueOf(id), sb.toString().trim());
                         id++;
                     }
                     sb.setLength(0);
@@ -239,8 +492,7 @@ public class CranFieldParserIndexer {
             }
 
             if (!sb.isEmpty()) {
-                String analyzedQuery = analyzeQuery(sb.toString().trim(), analyzer);
-                queries.put(String.valueOf(id), analyzedQuery);
+                queries.put(String.valueOf(id), sb.toString().trim());
             }
         }
         return queries;
@@ -264,28 +516,129 @@ public class CranFieldParserIndexer {
         return qrels;
     }
 
-    public static void generateTrecResults(IndexSearcher searcher, Analyzer analyzer, String queriesFile, String outputFile,
-                                           int topK, float titleBoost, float bodyBoost) throws Exception {
-        LinkedHashMap<String, String> queries = loadQueries(queriesFile,analyzer);
-        MultiFieldQueryParser parser = makeParser(analyzer, titleBoost, bodyBoost);
+    public static List<TrecEvaluator.QueryRun> generateTrecResults(IndexSearcher searcher, Analyzer analyzer, String queriesFile,
+                                                                   String outputFile, int topK, float titleBoost,
+                                                                   float bodyBoost) throws Exception {
+        return generateTrecResults(searcher, analyzer, queriesFile, outputFile, topK, titleBoost, bodyBoost, null, null);
+    }
+
+    public static List<TrecEvaluator.QueryRun> generateTrecResults(IndexSearcher searcher, Analyzer analyzer, String queriesFile,
+                                                                   String outputFile, int topK, float titleBoost,
+                                                                   float bodyBoost, ExecutorService executor) throws Exception {
+        return generateTrecResults(searcher, analyzer, queriesFile, outputFile, topK, titleBoost, bodyBoost, executor, null);
+    }
+
+    public static List<TrecEvaluator.QueryRun> generateTrecResults(IndexSearcher searcher, Analyzer analyzer, String queriesFile,
+                                                                   String outputFile, int topK, float titleBoost,
+                                                                   float bodyBoost, ExecutorService executor,
+                                                                   QueryMetrics metrics) throws Exception {
+        return generateTrecResults(searcher, analyzer, queriesFile, outputFile, topK, titleBoost, bodyBoost,
+                BatchSearchOptions.defaults().executor(executor).metrics(metrics));
+    }
 
-        try (PrintWriter pw = new PrintWriter(new FileWriter(outputFile))) {
-            for (Map.Entry<String, String> e : queries.entrySet()) {
-                String qid = e.getKey();
-                String text = e.getValue();
-                String safeQuery = text.replaceAll("[\\?\\*]", " ");
-                Query q = parser.parse(safeQuery);
-                TopDocs topDocs = searcher.search(q, topK);
-                int rank = 1;
-                for (ScoreDoc sd : topDocs.scoreDocs) {
-                    Document doc = searcher.storedFields().document(sd.doc);
-                    String docId = doc.get("id");
-                    pw.printf("%s Q0 %s %d %.6f cranLucene\n", qid, docId, rank, sd.score);
-                    rank++;
+    /**
+     * Batch mode: queries come precompiled from {@link QueryCompiler}, analyzed once
+     * and shared by every similarity and run with the same analyzer and boosts.
+     * When an executor is set the queries run concurrently. Each query collects its
+     * hits into its own buffer and the buffers are written in qid order, so the run
+     * file is identical to the sequential one. The ranked hits are also returned so
+     * they can be evaluated without re-reading the file.
+     * When metrics are set every query's parse/search/materialize time is recorded
+     * (parse is the query's share of compiling, zero once cached), and when a result
+     * cache is set repeated queries are answered from it. With a {@link TwoStageSearch}
+     * re-ranker the searcher's similarity picks the candidates that the re-rankers rescore.
+     */
+    public static List<TrecEvaluator.QueryRun> generateTrecResults(IndexSearcher searcher, Analyzer analyzer, String queriesFile,
+                                                                   String outputFile, int topK, float titleBoost,
+                                                                   float bodyBoost, BatchSearchOptions options) throws Exception {
+        ExecutorService executor = options.getExecutor();
+        QueryMetrics metrics = options.getMetrics();
+        QueryResultCache cache = options.getCache();
+        int threshold = options.getTotalHitsThreshold(topK);
+        TwoStageSearch reranker = options.getReranker();
+        Rm3Expander expander = options.getExpander();
+        String variant = options.variant();
+        long start = System.nanoTime();
+        List<QueryCompiler.CompiledQuery> queries = QueryCompiler.compile(queriesFile, analyzer, titleBoost, bodyBoost);
+        long compileNanos = queries.isEmpty() ? 0 : (System.nanoTime() - start) / queries.size();
+        DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+
+        List<TrecEvaluator.QueryRun> run = new ArrayList<>(queries.size());
+        if (executor == null) {
+            for (QueryCompiler.CompiledQuery q : queries) {
+                run.add(runTrecQuery(searcher, ids, q, topK, threshold, reranker, expander, titleBoost, bodyBoost,
+                        variant, compileNanos, metrics, cache));
+            }
+        } else {
+            List<Future<TrecEvaluator.QueryRun>> futures = new ArrayList<>(queries.size());
+            for (QueryCompiler.CompiledQuery q : queries) {
+                futures.add(executor.submit(() -> runTrecQuery(searcher, ids, q, topK, threshold, reranker,
+                        expander, titleBoost, bodyBoost, variant, compileNanos, metrics, cache)));
+            }
+            for (Future<TrecEvaluator.QueryRun> f : futures) {
+                try {
+                    run.add(f.get());
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof Exception cause ? cause : ex;
+                }
+            }
+        }
+
+        if (metrics != null) metrics.addWallTime(System.nanoTime() - start);
+
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)))) {
+            for (TrecEvaluator.QueryRun q : run) {
+                for (int i = 0; i < q.size(); i++) {
+                    pw.printf("%s Q0 %s %d %.6f %s\n", q.qid(), q.docIds()[i], i + 1, q.scores()[i], RUN_ID);
                 }
             }
         }
-        System.out.println("Wrote TREC results to: " + outputFile);
+        return run;
+    }
+
+    private static TrecEvaluator.QueryRun runTrecQuery(IndexSearcher searcher, DocIdLookup ids,
+                                                       QueryCompiler.CompiledQuery compiled, int topK, int threshold,
+                                                       TwoStageSearch reranker, Rm3Expander expander,
+                                                       float titleBoost, float bodyBoost, String variant,
+                                                       long compileNanos, QueryMetrics metrics,
+                                                       QueryResultCache cache) throws Exception {
+        long[] scored = new long[1];
+        long[] expandNanos = new long[1];
+        QueryResultCache.Search search = () -> {
+            QueryCompiler.CompiledQuery target = compiled;
+            if (expander != null) {
+                // feedback pass and expansion, timed as their own phase
+                long e0 = System.nanoTime();
+                Rm3Expander.Expansion expansion = expander.expand(searcher, compiled, titleBoost, bodyBoost);
+                expandNanos[0] = System.nanoTime() - e0;
+                scored[0] += expansion.docsScored();
+                target = expansion.query();
+            }
+            TopKSearch.Result r = reranker != null ? reranker.search(searcher, target, topK)
+                    : TopKSearch.search(searcher, target.query(), topK, threshold);
+            scored[0] += r.docsScored();
+            return r.topDocs();
+        };
+        long t1 = System.nanoTime();
+        TopDocs topDocs = cache == null ? search.run()
+                : cache.get(cache.key(searcher, compiled.query(), variant, topK), search);
+        long t2 = System.nanoTime();
+        String[] docIds = new String[topDocs.scoreDocs.length];
+        double[] scores = new double[topDocs.scoreDocs.length];
+        for (int i = 0; i < docIds.length; i++) {
+            ScoreDoc sd = topDocs.scoreDocs[i];
+            docIds[i] = ids.get(sd.doc);
+            scores[i] = sd.score;
+        }
+        if (metrics != null) {
+            if (expander != null) {
+                metrics.record(compileNanos, expandNanos[0], t2 - t1 - expandNanos[0], System.nanoTime() - t2);
+            } else {
+                metrics.record(compileNanos, t2 - t1, System.nanoTime() - t2);
+            }
+            metrics.addDocsScored(scored[0]);
+        }
+        return new TrecEvaluator.QueryRun(compiled.qid(), docIds, scores);
     }
 
     public static IndexSearcher makeSearcherWithSimilarity(IndexReader reader, int simChoice) {
@@ -295,18 +648,30 @@ public class CranFieldParserIndexer {
                 searcher.setSimilarity(new ClassicSimilarity());
                 break;
             case 3: // LM Dirichlet
-                searcher.setSimilarity(new LMDirichletSimilarity(1500)); // mu default ~1500
+                searcher.setSimilarity(new LMDirichletSimilarity(LM_MU)); // mu default 1500
                 break;
             case 4: // LM Jelinek-Mercer
-                searcher.setSimilarity(new LMJelinekMercerSimilarity(0.7f)); // lambda default 0.7
+                searcher.setSimilarity(new LMJelinekMercerSimilarity(LM_LAMBDA)); // lambda default 0.7
                 break;
             default: // BM25
-                searcher.setSimilarity(new BM25Similarity()); // default k1=1.2, b=0.75
+                searcher.setSimilarity(new BM25Similarity(BM25_K1, BM25_B)); // default k1=1.2, b=0.75
                 break;
         }
         return searcher;
     }
 
+    /** Builds one of the {@link #ANALYZER_NAMES} analyzers. */
+    public static Analyzer analyzerByName(String name) {
+        return switch (name) {
+            case "StandardAnalyzer" -> new StandardAnalyzer();
+            case "EnglishAnalyzer" -> new EnglishAnalyzer();
+            case "SimpleAnalyzer" -> new SimpleAnalyzer();
+            case "WhitespaceAnalyzer" -> new WhitespaceAnalyzer();
+            case "CustomAnalyzer" -> getCranfieldAnalyzer();
+            default -> throw new IllegalArgumentException("Unknown analyzer: " + name);
+        };
+    }
+
     public static Analyzer getCranfieldAnalyzer() {
         List<String> cranStopwords = Arrays.asList(
                 "a", "about", "above", "after", "again", "against", "all", "almost", "alone",
@@ -343,17 +708,18 @@ public class CranFieldParserIndexer {
     }
 
     public static void runAllCombinations(String cranFile, String queriesFile, String qrelsFile) throws Exception {
-        List<Analyzer> analyzers = List.of(
-                new StandardAnalyzer(),
-                new EnglishAnalyzer(),
-                new SimpleAnalyzer(),
-                new WhitespaceAnalyzer(),
-                getCranfieldAnalyzer()
-        );
+        runAllCombinations(cranFile, queriesFile, qrelsFile, SweepExecutor.defaultParallelism());
+    }
+
+    public static void runAllCombinations(String cranFile, String queriesFile, String qrelsFile, int parallelism) throws Exception {
+        String[] analyzerNames = ANALYZER_NAMES;
+        List<Analyzer> analyzers = new ArrayList<>();
+        for (String name : analyzerNames) {
+            analyzers.add(analyzerByName(name));
+        }
 
-        String[] analyzerNames = {"StandardAnalyzer", "EnglishAnalyzer", "SimpleAnalyzer", "WhitespaceAnalyzer", "CustomAnalyzer"};
         int[] similarities = {1, 2, 3, 4};
-        String[] simNames = {"TFIDF", "BM25", "LMDirichlet", "LMJelinekMercer"};
+        String[] simNames = SIMILARITY_NAMES;
 
         float[][] boostConfigs = {
                 {1.0f, 1.0f},
@@ -361,74 +727,90 @@ public class CranFieldParserIndexer {
                 {1.0f, 2.0f}
         };
 
-        List<CranFieldDocument> docs = parseCranField(new File(cranFile));
-
-        for (int i = 0; i < analyzers.size(); i++) {
-            Analyzer analyzer = analyzers.get(i);
-            String analyzerName = analyzerNames[i];
-
-            for (int s = 0; s < similarities.length; s++) {
-                int simChoice = similarities[s];
-                String simName = simNames[s];
-
-                for (float[] boost : boostConfigs) {
-                    float titleBoost = boost[0];
-                    float contentBoost = boost[1];
-
-                    String boostTag = String.format("t%.0f_c%.0f", titleBoost, contentBoost);
-                    String indexDirName = ROOT_INDEX_PATH + "index_" + analyzerName + "_" + simName + "_" + boostTag;
-                    Path indexPath = Paths.get(indexDirName);
-
-                    System.out.println("\n=== Running combo: " + analyzerName + " + " + simName + " + Boost(" + titleBoost + "," + contentBoost + ") ===");
-
-                    buildIndex(indexPath, docs, analyzer);
-
-                    try (IndexReader reader = DirectoryReader.open(FSDirectory.open(indexPath))) {
-                        IndexSearcher searcher = makeSearcherWithSimilarity(reader, simChoice);
-
-                        String resultsPath = "output/results";
-                        new File(resultsPath).mkdirs();
-
-                        String resultFile = String.format(resultsPath + "/%s_%s_%s_results.txt", analyzerName, simName, boostTag);
-
-                        String internalEvalPath = "output/internalEval";
-                        new File(internalEvalPath).mkdirs();
-                        String evalFile = String.format(internalEvalPath + "/%s_%s_%s_eval.txt", analyzerName, simName, boostTag);
-
-                        System.out.println("Running internal eval for " + analyzerName + " + " + simName + " + " + boostTag);
-                        System.out.printf("Indexing docs: %d | Analyzer: %s | Similarity: %s | Boost(title=%.1f, content=%.1f)%n",
-                                docs.size(), analyzerName, simName, titleBoost, contentBoost);
+        new File("output/results").mkdirs();
+        new File("output/trec_eval").mkdirs();
+
+        try (AnalyzerIndexCache indexCache = new AnalyzerIndexCache(ROOT_INDEX_PATH, new File(cranFile))) {
+            // open every reader up front; the tasks only search them
+            Map<String, IndexReader> readers = new HashMap<>();
+            List<SweepExecutor.Combination> combos = new ArrayList<>();
+            for (int i = 0; i < analyzers.size(); i++) {
+                readers.put(analyzerNames[i], indexCache.getReader(analyzerNames[i], analyzers.get(i)));
+                if (indexCache.isUseTokenCache()) {
+                    QueryCompiler.useTokenCache(analyzers.get(i), analyzerNames[i], indexCache.tokenCacheDir());
+                }
+                for (int s = 0; s < similarities.length; s++) {
+                    for (float[] boost : boostConfigs) {
+                        combos.add(new SweepExecutor.Combination(analyzerNames[i], analyzers.get(i),
+                                simNames[s], similarities[s], boost[0], boost[1]));
+                    }
+                }
+            }
 
-                        generateTrecResults(searcher, analyzer, queriesFile, resultFile, DEFAULT_TOP_K, titleBoost, contentBoost);
-                        //runInternalEvaluation(searcher, analyzer, queriesFile, qrelsFile, DEFAULT_TOP_K, titleBoost, contentBoost);
+            // warm every reader once so the first combinations are not timed against a cold index
+            IndexWarmer warmer = IndexWarmer.fromSystemProperties(queriesFile);
+            for (int i = 0; i < analyzers.size(); i++) {
+                warmer.warm(makeSearcherWithSimilarity(readers.get(analyzerNames[i]), 2), analyzers.get(i), 1.0f, 1.0f);
+            }
 
-                        File evalDetails = new File("evaluation_details.txt");
-                        if (evalDetails.exists()) {
-                            evalDetails.renameTo(new File(evalFile));
-                        }
+            TrecEvaluator evaluator = new TrecEvaluator(loadQrels(qrelsFile));
+            Map<String, QueryMetrics> latencies = new ConcurrentHashMap<>();
+            // -Dcranfield.rerank / -Dcranfield.rm3 apply to the whole sweep and are named in every run
+            BatchSearchOptions configured = BatchSearchOptions.fromSystemProperties();
+            if (!configured.variant().isEmpty()) System.out.println("Sweep runs with " + configured.variant());
+            try {
+                new SweepExecutor(parallelism).run(combos, configured.variant(),
+                        combo -> runCombination(readers.get(combo.analyzerName()), combo, configured, queriesFile,
+                                qrelsFile, evaluator, latencies));
+            } finally {
+                // latencies are only comparable between runs of the same sweep (combos share the CPUs)
+                QueryMetrics.writeCsv(QueryMetrics.LATENCY_CSV, latencies);
+            }
+        }
+    }
 
-                        String trecEvalPath = "output/trec_eval";
-                        new File(trecEvalPath).mkdirs();
+    private static void runCombination(IndexReader reader, SweepExecutor.Combination combo,
+                                       BatchSearchOptions configured, String queriesFile, String qrelsFile,
+                                       TrecEvaluator evaluator, Map<String, QueryMetrics> latencies) throws Exception {
+        IndexSearcher searcher = makeSearcherWithSimilarity(reader, combo.simChoice());
+
+        String runName = combo.runName(configured.variant());
+        String resultFile = "output/results/" + runName + "_results.txt";
+        String trecEvalOutput = "output/trec_eval/" + runName + "_trec.txt";
+
+        QueryMetrics metrics = new QueryMetrics();
+        List<TrecEvaluator.QueryRun> run = generateTrecResults(searcher, combo.analyzer(), queriesFile, resultFile,
+                DEFAULT_TOP_K, combo.titleBoost(), combo.bodyBoost(), BatchSearchOptions.defaults().metrics(metrics)
+                        .reranker(configured.getReranker()).expander(configured.getExpander()));
+        System.out.println("Wrote TREC results to: " + resultFile);
+        latencies.put(runName, metrics);
+        System.out.println(runName + " latency: " + metrics.summary());
+
+        String trecEvalBinary = System.getProperty(TREC_EVAL_PROPERTY);
+        if (trecEvalBinary != null && !trecEvalBinary.isBlank()) {
+            runExternalTrecEval(trecEvalBinary, qrelsFile, resultFile, trecEvalOutput);
+            return;
+        }
 
-                        String trecEvalOutput = String.format(trecEvalPath + "/%s_%s_%s_trec.txt", analyzerName, simName, boostTag);
+        TrecEvaluator.Result result = evaluator.evaluate(RUN_ID, run);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(trecEvalOutput)))) {
+            result.write(writer, true);
+        }
+    }
 
-                        ProcessBuilder pb = new ProcessBuilder("trec_eval", qrelsFile, resultFile);
-                        Process p = pb.start();
+    private static void runExternalTrecEval(String trecEvalBinary, String qrelsFile, String resultFile,
+                                            String trecEvalOutput) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(trecEvalBinary, "-q", qrelsFile, resultFile);
+        Process p = pb.start();
 
-                        try (BufferedReader readerCmd = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                             PrintWriter writer = new PrintWriter(new FileWriter(trecEvalOutput))) {
-                            String line;
-                            while ((line = readerCmd.readLine()) != null) {
-                                writer.println(line);
-                            }
-                        }
-                        p.waitFor();
-                        System.out.println("TREC_EVAL Output: " + trecEvalOutput);
-                    }
-                }
+        try (BufferedReader readerCmd = new BufferedReader(new InputStreamReader(p.getInputStream()));
+             PrintWriter writer = new PrintWriter(new FileWriter(trecEvalOutput))) {
+            String line;
+            while ((line = readerCmd.readLine()) != null) {
+                writer.println(line);
             }
         }
-
+        p.waitFor();
     }
 
 
@@ -446,17 +828,17 @@ public class CranFieldParserIndexer {
             System.out.println("\n--- Menu ---");
             System.out.println("1: Interactive search");
             System.out.println("2: Run all Analyzer+Similarity Evaluation");
-            System.out.println("3: Exit");
+            System.out.println("3: Start search server");
+            System.out.println("4: Exit");
             System.out.print("> ");
             String choice = sc.nextLine().trim();
             switch (choice) {
                 case "1":
                     Analyzer analyzer = chooseAnalyzer(sc);
-                    System.out.println("Parsing cran.all ...");
-                    List<CranFieldDocument> docs = parseCranField(cran);
-                    System.out.println("Parsed documents: " + docs.size());
                     System.out.println("Building index using analyzer: " + analyzer.getClass().getSimpleName());
-                    buildIndex(INTERACTIVE_INDEX_PATH, docs, analyzer);
+                    IndexStats stats = buildIndex(INTERACTIVE_INDEX_PATH, cran, analyzer, Map.of(),
+                            IndexingOptions.fromSystemProperties());
+                    System.out.println("Indexed " + stats);
                     System.out.println("Index built at: " + INTERACTIVE_INDEX_PATH.toAbsolutePath());
 
 
@@ -477,17 +859,44 @@ public class CranFieldParserIndexer {
                     String simChoiceStr = sc.nextLine().trim();
                     int simChoice = simChoiceStr.isEmpty() ? 2 : Integer.parseInt(simChoiceStr);
 
-                    try (IndexReader reader = DirectoryReader.open(FSDirectory.open(INTERACTIVE_INDEX_PATH))) {
-                        IndexSearcher searcher = makeSearcherWithSimilarity(reader, simChoice);
-                        interactiveSearch(searcher, analyzer, sc, titleBoost, bodyBoost);
-
-                        generateTrecResults(searcher, analyzer, "cran/cran.qry", "output/interactive/results.txt", 100, titleBoost, bodyBoost);
+                    try (Directory dir = DirectoryOptions.fromSystemProperties().open(INTERACTIVE_INDEX_PATH);
+                         IndexReader reader = DirectoryReader.open(dir)) {
+                        FilterCache filterCache = FilterCache.fromSystemProperties();
+                        IndexSearcher searcher = filterCache.apply(makeSearcherWithSimilarity(reader, simChoice));
+                        IndexWarmer.fromSystemProperties("cran/cran.qry").warm(searcher, analyzer, titleBoost, bodyBoost);
+                        QueryResultCache cache = QueryResultCache.fromSystemProperties();
+                        interactiveSearch(searcher, analyzer, sc, titleBoost, bodyBoost, cache);
+                        System.out.println("Filter cache: " + filterCache);
+
+                        ExecutorService queryPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                        try {
+                            QueryMetrics batchMetrics = new QueryMetrics();
+                            BatchSearchOptions batch = BatchSearchOptions.fromSystemProperties().executor(queryPool)
+                                    .metrics(batchMetrics).cache(cache);
+                            generateTrecResults(searcher, analyzer, "cran/cran.qry", "output/interactive/results.txt", 100,
+                                    titleBoost, bodyBoost, batch);
+                            System.out.println("Wrote TREC results to: output/interactive/results.txt");
+                            System.out.println("cran.qry latency" + (batch.variant().isEmpty() ? "" : " (" + batch.variant() + ")")
+                                    + ": " + batchMetrics.summary());
+                            System.out.println("Query cache: " + cache);
+                        } finally {
+                            queryPool.shutdown();
+                        }
                     }
 
                     break;
                 case "2":
                     runAllCombinations(CRAN_FILE, "cran/cran.qry", "cran/cranqrel");
                     break;
+                case "3":
+                    try (SearchServer server = SearchServer.fromSystemProperties()) {
+                        System.out.println("Type ':q' to stop the server.");
+                        while (!sc.nextLine().trim().equals(":q")) {
+                            // keep serving until asked to stop
+                        }
+                        System.out.println("Server latency: " + server.getMetrics().summary());
+                    }
+                    break;
                 default:
                     break mainLoop;
             }
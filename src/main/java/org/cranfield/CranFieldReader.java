@@ -0,0 +1,169 @@
+package org.cranfield;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams Cranfield-format documents one at a time, so the whole collection
+ * never has to be held in memory. Lines are scanned straight out of a char
+ * buffer into reusable builders; section markers are matched on chars rather
+ * than by building and comparing Strings.
+ *
+ * Produces exactly the same documents as {@link CranFieldParserIndexer#parseCranField}.
+ */
+public class CranFieldReader implements Iterator<CranFieldParserIndexer.CranFieldDocument>, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader in;
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    private final StringBuilder line = new StringBuilder(256);
+    private final StringBuilder text = new StringBuilder(4096);
+    private char section;   // 0 when outside a section
+    private String pendingId; // id of the document whose .I line was read last
+    private CranFieldParserIndexer.CranFieldDocument next;
+
+    public CranFieldReader(Path file) throws IOException {
+        this.in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    }
+
+    public CranFieldReader(File file) throws IOException {
+        this(file.toPath());
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readDocument();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public CranFieldParserIndexer.CranFieldDocument next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        CranFieldParserIndexer.CranFieldDocument doc = next;
+        next = null;
+        return doc;
+    }
+
+    private CranFieldParserIndexer.CranFieldDocument readDocument() throws IOException {
+        CranFieldParserIndexer.CranFieldDocument cur = null;
+        if (pendingId != null) {
+            cur = new CranFieldParserIndexer.CranFieldDocument();
+            cur.id = pendingId;
+            pendingId = null;
+        }
+
+        while (readLine()) {
+            int start = 0;
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') start++;
+            while (end > start && line.charAt(end - 1) <= ' ') end--;
+            int len = end - start;
+
+            if (len >= 3 && line.charAt(start) == '.' && line.charAt(start + 1) == 'I' && line.charAt(start + 2) == ' ') {
+                String id = line.substring(start + 3, end).trim();
+                if (cur != null) {
+                    assign(cur);
+                    pendingId = id;
+                    return cur;
+                }
+                cur = new CranFieldParserIndexer.CranFieldDocument();
+                cur.id = id;
+                section = 0;
+                text.setLength(0);
+            } else if (len == 2 && line.charAt(start) == '.' && isSectionMarker(line.charAt(start + 1))) {
+                if (cur != null && section != 0) assign(cur);
+                section = line.charAt(start + 1);
+                text.setLength(0);
+            } else if (section != 0) {
+                if (text.length() > 0) text.append(' ');
+                text.append(line, start, end);
+            }
+        }
+
+        if (cur != null) assign(cur);
+        return cur;
+    }
+
+    private static boolean isSectionMarker(char c) {
+        return c == 'T' || c == 'A' || c == 'B' || c == 'W';
+    }
+
+    /** Stores the buffered section text on the document and starts a new section. */
+    private void assign(CranFieldParserIndexer.CranFieldDocument doc) {
+        if (section == 0) return;
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        String value = text.substring(start, end);
+        switch (section) {
+            case 'T' -> doc.title = value;
+            case 'A' -> doc.author = value;
+            case 'B' -> doc.biblio = value;
+            case 'W' -> doc.body = value;
+        }
+        section = 0;
+        text.setLength(0);
+    }
+
+    /** Reads the next line (without terminator) into {@link #line}; false at end of input. */
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        boolean any = false;
+        while (true) {
+            if (pos >= limit) {
+                if (eof || !fill()) return any;
+            }
+            any = true;
+            int start = pos;
+            while (pos < limit) {
+                char c = buf[pos];
+                if (c == '\n' || c == '\r') {
+                    line.append(buf, start, pos - start);
+                    pos++;
+                    if (c == '\r') skipLineFeed();
+                    return true;
+                }
+                pos++;
+            }
+            line.append(buf, start, pos - start);
+        }
+    }
+
+    private void skipLineFeed() throws IOException {
+        if (pos >= limit && !fill()) return;
+        if (buf[pos] == '\n') pos++;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            eof = true;
+            pos = limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,99 @@
+package org.cranfield;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Which {@link Directory} implementation searchers open an index with.
+ *
+ * <ul>
+ *   <li>{@code fs} (default): {@link FSDirectory#open}, i.e. whatever Lucene picks for the platform</li>
+ *   <li>{@code mmap}: {@link MMapDirectory}, preloading files with the {@link #preload} extensions
+ *       (by default terms dictionary, postings and norms) into the page cache on open</li>
+ *   <li>{@code niofs}: {@link NIOFSDirectory}, positional reads through a FileChannel</li>
+ *   <li>{@code heap}: the whole index copied into a {@link ByteBuffersDirectory}; only
+ *       sensible for collections the size of Cranfield</li>
+ * </ul>
+ *
+ * Indexes are always written through {@link FSDirectory}; this only affects readers.
+ * Settings can also be given as system properties, e.g.
+ * {@code -Dcranfield.directory=mmap -Dcranfield.directory.preload=tim,tip,doc,nvd}.
+ */
+public class DirectoryOptions {
+
+    private static final String PROPERTY = "cranfield.directory";
+    private static final Set<String> DEFAULT_PRELOAD = Set.of("tim", "tip", "doc", "nvd");
+
+    private String mode = "fs";
+    private Set<String> preload = DEFAULT_PRELOAD;
+
+    public static DirectoryOptions defaults() {
+        return new DirectoryOptions();
+    }
+
+    /** Defaults overridden by {@code cranfield.directory} and {@code cranfield.directory.preload} if set. */
+    public static DirectoryOptions fromSystemProperties() {
+        DirectoryOptions o = new DirectoryOptions();
+        String v;
+        if ((v = System.getProperty(PROPERTY)) != null) o.mode(v.trim());
+        if ((v = System.getProperty(PROPERTY + ".preload")) != null) {
+            o.preload(v.isBlank() ? Set.of() : new HashSet<>(Arrays.asList(v.trim().split("\\s*,\\s*"))));
+        }
+        return o;
+    }
+
+    /** "fs", "mmap", "niofs" or "heap". */
+    public DirectoryOptions mode(String mode) {
+        if (!List.of("fs", "mmap", "niofs", "heap").contains(mode)) {
+            throw new IllegalArgumentException("Unknown directory mode: " + mode);
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    /** File extensions (without the dot) that mmap mode preloads; "*" preloads every file. */
+    public DirectoryOptions preload(Set<String> extensions) {
+        this.preload = Set.copyOf(extensions);
+        return this;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /** Opens {@code indexPath} for reading in this mode. */
+    public Directory open(Path indexPath) throws IOException {
+        return switch (mode) {
+            case "mmap" -> {
+                MMapDirectory dir = new MMapDirectory(indexPath);
+                dir.setPreload(preload.contains("*") ? MMapDirectory.ALL_FILES
+                        : (name, context) -> {
+                            String ext = IndexFileNames.getExtension(name);
+                            return ext != null && preload.contains(ext);
+                        });
+                yield dir;
+            }
+            case "niofs" -> new NIOFSDirectory(indexPath);
+            case "heap" -> {
+                ByteBuffersDirectory heap = new ByteBuffersDirectory();
+                try (FSDirectory fs = FSDirectory.open(indexPath)) {
+                    for (String file : fs.listAll()) {
+                        if (file.equals("write.lock")) continue;
+                        heap.copyFrom(fs, file, file, IOContext.READONCE);
+                    }
+                }
+                yield heap;
+            }
+            default -> FSDirectory.open(indexPath);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return mode.equals("mmap") ? "mmap(preload=" + new TreeSet<>(preload) + ")" : mode;
+    }
+}
@@ -0,0 +1,81 @@
+package org.cranfield;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves Lucene doc ids to Cranfield ids through the {@code id} SortedDocValues
+ * field instead of loading stored documents. Each segment's ids are decoded once
+ * into a plain array and cached against the segment core, so a segment shared by
+ * several readers (or several searchers over one reader) is decoded only once.
+ *
+ * Indexes built before the doc values field existed fall back to stored fields.
+ */
+public final class DocIdLookup {
+
+    public static final String ID_FIELD = "id";
+
+    private static final Map<IndexReader.CacheKey, String[]> SEGMENT_IDS = new ConcurrentHashMap<>();
+
+    private final List<LeafReaderContext> leaves;
+    private final String[][] perLeaf;
+    private final IndexSearcher searcher;
+
+    private DocIdLookup(IndexSearcher searcher) throws IOException {
+        this.searcher = searcher;
+        this.leaves = searcher.getIndexReader().leaves();
+        this.perLeaf = new String[leaves.size()][];
+        for (int i = 0; i < leaves.size(); i++) {
+            perLeaf[i] = segmentIds(leaves.get(i).reader());
+        }
+    }
+
+    public static DocIdLookup forSearcher(IndexSearcher searcher) throws IOException {
+        return new DocIdLookup(searcher);
+    }
+
+    /** Cranfield id for a top-level doc id. */
+    public String get(int doc) throws IOException {
+        int leaf = ReaderUtil.subIndex(doc, leaves);
+        String[] ids = perLeaf[leaf];
+        if (ids == null) {
+            return searcher.storedFields().document(doc, Set.of(ID_FIELD)).get(ID_FIELD);
+        }
+        return ids[doc - leaves.get(leaf).docBase];
+    }
+
+    private static String[] segmentIds(LeafReader reader) throws IOException {
+        FieldInfo info = reader.getFieldInfos().fieldInfo(ID_FIELD);
+        if (info == null || info.getDocValuesType() != DocValuesType.SORTED) return null;
+
+        IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+        if (helper == null) return loadIds(reader);
+
+        String[] ids = SEGMENT_IDS.get(helper.getKey());
+        if (ids == null) {
+            ids = loadIds(reader);
+            if (SEGMENT_IDS.putIfAbsent(helper.getKey(), ids) == null) {
+                helper.addClosedListener(SEGMENT_IDS::remove);
+            }
+        }
+        return ids;
+    }
+
+    private static String[] loadIds(LeafReader reader) throws IOException {
+        SortedDocValues dv = DocValues.getSorted(reader, ID_FIELD);
+        String[] byOrd = new String[dv.getValueCount()];
+        String[] ids = new String[reader.maxDoc()];
+        for (int doc = dv.nextDoc(); doc != SortedDocValues.NO_MORE_DOCS; doc = dv.nextDoc()) {
+            int ord = dv.ordValue();
+            if (byOrd[ord] == null) byOrd[ord] = dv.lookupOrd(ord).utf8ToString();
+            ids[doc] = byOrd[ord];
+        }
+        return ids;
+    }
+}
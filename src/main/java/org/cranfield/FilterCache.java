@@ -0,0 +1,129 @@
+package org.cranfield;
+
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.FrequencyTrackingRingBuffer;
+
+import java.util.*;
+
+/**
+ * Per-segment bitset cache for the non-scoring author/title FILTER clauses
+ * built by {@link CranFieldParserIndexer#withFilters}.
+ *
+ * Lucene's default cache setup never helps these filters: the default
+ * {@link UsageTrackingQueryCachingPolicy} refuses to cache term queries, and
+ * the default {@link LRUQueryCache} skips segments under 10,000 documents.
+ * This wraps an {@link LRUQueryCache} with a policy that does cache them, and
+ * installs both on a searcher. Entries are keyed by segment core, so when a
+ * reader is reopened the segments it shares with the old reader keep their
+ * bitsets and those of merged-away segments are dropped as the segments close.
+ *
+ * Settings come from system properties, prefix {@code cranfield.filterCache.}:
+ * {@code size} (max cached filters, 256), {@code ramMB} (32), {@code policy}
+ * ({@code always}, or {@code frequency} to cache a filter once it was used
+ * {@code minFrequency} (2) times among the last 256 filters),
+ * {@code minSegmentDocs} (0) and {@code skipCacheFactor} (10, as in Lucene).
+ */
+public class FilterCache {
+
+    private static final String PREFIX = "cranfield.filterCache.";
+    private static final int HISTORY = 256;
+
+    private final LRUQueryCache cache;
+    private final QueryCachingPolicy policy;
+    private final String description;
+
+    public FilterCache(int maxFilters, double ramMB, String policyName, int minFrequency, int minSegmentDocs,
+                       float skipCacheFactor) {
+        this.cache = new LRUQueryCache(maxFilters, (long) (ramMB * 1024 * 1024),
+                leaf -> leaf.reader().maxDoc() >= minSegmentDocs, skipCacheFactor);
+        this.policy = switch (policyName) {
+            case "always" -> new QueryCachingPolicy() {
+                @Override
+                public void onUse(Query query) {
+                }
+
+                @Override
+                public boolean shouldCache(Query query) {
+                    return true;
+                }
+            };
+            case "frequency" -> new FrequencyPolicy(minFrequency);
+            default -> throw new IllegalArgumentException("Unknown filter cache policy: " + policyName);
+        };
+        this.description = String.format(Locale.ROOT, "%s, %d filters / %.0f MB", policyName.equals("frequency")
+                ? "frequency>=" + minFrequency : policyName, maxFilters, ramMB);
+    }
+
+    /** Cache from the {@code cranfield.filterCache.*} system properties. */
+    public static FilterCache fromSystemProperties() {
+        return new FilterCache(Integer.parseInt(System.getProperty(PREFIX + "size", "256").trim()),
+                Double.parseDouble(System.getProperty(PREFIX + "ramMB", "32").trim()),
+                System.getProperty(PREFIX + "policy", "frequency").trim(),
+                Integer.parseInt(System.getProperty(PREFIX + "minFrequency", "2").trim()),
+                Integer.parseInt(System.getProperty(PREFIX + "minSegmentDocs", "0").trim()),
+                Float.parseFloat(System.getProperty(PREFIX + "skipCacheFactor", "10").trim()));
+    }
+
+    /**
+     * Caches a filter once it has been seen {@code minFrequency} times among the
+     * last {@link #HISTORY} filters, like UsageTrackingQueryCachingPolicy but
+     * without its exclusion of term queries.
+     */
+    private static final class FrequencyPolicy implements QueryCachingPolicy {
+        private final FrequencyTrackingRingBuffer recent = new FrequencyTrackingRingBuffer(HISTORY, 0);
+        private final int minFrequency;
+
+        FrequencyPolicy(int minFrequency) {
+            this.minFrequency = minFrequency;
+        }
+
+        private static boolean isFilter(Query query) {
+            return !(query instanceof MatchAllDocsQuery || query instanceof MatchNoDocsQuery);
+        }
+
+        @Override
+        public void onUse(Query query) {
+            if (!isFilter(query)) return;
+            int hash = query.hashCode();
+            synchronized (this) {
+                recent.add(hash);
+            }
+        }
+
+        @Override
+        public boolean shouldCache(Query query) {
+            if (!isFilter(query)) return false;
+            int hash = query.hashCode();
+            synchronized (this) {
+                return recent.frequency(hash) >= minFrequency;
+            }
+        }
+    }
+
+    /** Installs the cache and its policy on {@code searcher} and returns it. */
+    public IndexSearcher apply(IndexSearcher searcher) {
+        searcher.setQueryCache(cache);
+        searcher.setQueryCachingPolicy(policy);
+        return searcher;
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public double getHitRate() {
+        long total = cache.getTotalCount();
+        return total == 0 ? 0 : (double) cache.getHitCount() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s | %d cached bitsets (%.1f KB) | hits %d | misses %d | evictions %d | hit rate %.1f%%",
+                description, cache.getCacheSize(), cache.ramBytesUsed() / 1024.0, cache.getHitCount(),
+                cache.getMissCount(), cache.getEvictionCount(), getHitRate() * 100);
+    }
+}
@@ -0,0 +1,230 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies Cranfield-format deltas to an existing index instead of rebuilding it.
+ *
+ * Each record replaces any document with the same {@code id} (or is added if
+ * the id is new) through {@link IndexWriter#updateDocument}. After every file
+ * the {@link SearcherManager} is refreshed from the writer, so new documents
+ * are searchable near-real-time without a commit; searches that already hold
+ * a searcher keep running on their point-in-time view. Changes are committed
+ * on {@link #commit()} and on close.
+ *
+ * Apply deltas to the copy from {@link AnalyzerIndexCache#ensureDeltaIndex},
+ * not to the cached index itself. Once a delta is applied, commits record the
+ * number of delta files under {@code deltas} and move the corpus fingerprint to
+ * {@code baseFingerprint}, so {@link AnalyzerIndexCache} never mistakes the
+ * index for a clean build of the corpus. Documents are written with the
+ * {@link IndexLayout} of the indexing options; an index built with another
+ * layout is refused rather than mixing layouts.
+ *
+ * {@link #watch(Path)} polls a drop directory: the regular files that appear
+ * there are applied, committed, and only then moved to {@code processed/}, so
+ * a crash never loses a delta whose file was already moved. Files left behind
+ * by a failed commit are applied again on the next pass, which is harmless
+ * because records replace documents by id. Write files under a
+ * temporary name ending in {@code .tmp} (or starting with a dot) and rename
+ * them when complete, so half-written files are not picked up.
+ */
+public class IncrementalIndexer implements Closeable {
+
+    static final String PROCESSED_DIR = "processed";
+
+    private final IndexWriter writer;
+    private final SearcherManager manager;
+    private final CranFieldParserIndexer.ReusableCranDocument reusable;
+    /** Commit data the index was opened with. */
+    private final Map<String, String> commitData;
+    private int deltas;
+    private Thread watcher;
+    private volatile boolean closed;
+
+    public IncrementalIndexer(Path indexPath, Analyzer analyzer, SearcherFactory searcherFactory) throws IOException {
+        IndexingOptions options = IndexingOptions.fromSystemProperties();
+        IndexWriterConfig iwc = options.apply(new IndexWriterConfig(analyzer));
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        IndexLayout layout = options.getLayout();
+        this.reusable = new CranFieldParserIndexer.ReusableCranDocument(layout);
+        Directory dir = FSDirectory.open(indexPath);
+        try {
+            this.commitData = DirectoryReader.indexExists(dir)
+                    ? new HashMap<>(DirectoryReader.listCommits(dir).getLast().getUserData()) : new HashMap<>();
+            String built = commitData.get(AnalyzerIndexCache.LAYOUT_KEY);
+            if (built != null && !built.equals(layout.describe())) {
+                throw new IllegalArgumentException("Index at " + indexPath + " was built with layout " + built
+                        + ", not " + layout.describe() + "; set -Dcranfield.layout to match");
+            }
+            this.deltas = Integer.parseInt(commitData.getOrDefault(AnalyzerIndexCache.DELTAS_KEY, "0"));
+            this.writer = new IndexWriter(dir, iwc);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(dir);
+            throw e;
+        }
+        this.manager = new SearcherManager(writer, searcherFactory);
+    }
+
+    /** NRT searchers over this writer; share it with {@link SearchServer}. */
+    public SearcherManager getSearcherManager() {
+        return manager;
+    }
+
+    /** Adds or replaces every record in {@code file} and refreshes searchers. Returns the records applied. */
+    public synchronized int apply(File file) throws IOException {
+        long start = System.nanoTime();
+        int n = 0;
+        try (CranFieldReader reader = new CranFieldReader(file)) {
+            while (reader.hasNext()) {
+                CranFieldParserIndexer.CranFieldDocument cd = reader.next();
+                if (cd.id == null || cd.id.isEmpty()) continue;
+                writer.updateDocument(new Term("id", cd.id), reusable.set(cd));
+                n++;
+            }
+        }
+        if (n > 0) {
+            deltas++;
+            writer.setLiveCommitData(deltaCommitData().entrySet());
+        }
+        manager.maybeRefreshBlocking();
+        System.out.printf("Applied %d record(s) from %s in %.1f ms%n", n, file.getName(), (System.nanoTime() - start) / 1e6);
+        return n;
+    }
+
+    public synchronized void commit() throws IOException {
+        writer.commit();
+    }
+
+    /** The opening commit data with the corpus fingerprint moved aside and the delta count. */
+    private Map<String, String> deltaCommitData() {
+        Map<String, String> data = new HashMap<>(commitData);
+        String fingerprint = data.remove(AnalyzerIndexCache.CORPUS_FINGERPRINT_KEY);
+        if (fingerprint != null) data.put(AnalyzerIndexCache.BASE_FINGERPRINT_KEY, fingerprint);
+        data.put(AnalyzerIndexCache.DELTAS_KEY, String.valueOf(deltas));
+        return data;
+    }
+
+    /**
+     * Applies whatever is already in {@code dropDir}, then keeps polling it on
+     * a background thread until this indexer is closed.
+     */
+    public synchronized IncrementalIndexer watch(Path dropDir) throws IOException {
+        if (watcher != null) throw new IllegalStateException("Already watching a drop directory");
+        Files.createDirectories(dropDir.resolve(PROCESSED_DIR));
+        WatchService ws = dropDir.getFileSystem().newWatchService();
+        dropDir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        drain(dropDir);
+        watcher = new Thread(() -> {
+            try (ws) {
+                while (!closed) {
+                    WatchKey key = ws.poll(500, TimeUnit.MILLISECONDS);
+                    if (key == null) continue;
+                    key.pollEvents();
+                    key.reset();
+                    drain(dropDir);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // closing
+            } catch (IOException e) {
+                System.err.println("Drop directory watcher stopped: " + e.getMessage());
+            }
+        }, "cranfield-drop-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching " + dropDir.toAbsolutePath() + " for new Cranfield records");
+        return this;
+    }
+
+    private void drain(Path dropDir) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dropDir)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                if (Files.isRegularFile(p) && !name.startsWith(".") && !name.endsWith(".tmp")) files.add(p);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list " + dropDir + ": " + e.getMessage());
+            return;
+        }
+        Collections.sort(files);
+        List<Path> applied = new ArrayList<>();
+        for (Path p : files) {
+            if (closed) break;
+            try {
+                apply(p.toFile());
+                applied.add(p);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to apply " + p.getFileName() + ": " + e.getMessage());
+            }
+        }
+        if (applied.isEmpty()) return;
+        try {
+            commit();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to commit " + applied.size() + " delta file(s), leaving them in " + dropDir
+                    + ": " + e.getMessage());
+            return;
+        }
+        for (Path p : applied) {
+            try {
+                Files.move(p, dropDir.resolve(PROCESSED_DIR).resolve(p.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Failed to move " + p.getFileName() + " to " + PROCESSED_DIR + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // no interrupt: interrupting a thread inside IndexWriter can leave the writer
+        // unusable; the watcher sees closed within one poll interval
+        closed = true;
+        if (watcher != null) {
+            try {
+                watcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                manager.close();
+            } finally {
+                writer.commit();
+                writer.close();
+                writer.getDirectory().close();
+            }
+        }
+    }
+
+    /** Applies delta files to the delta index for an analyzer and commits: {@code IncrementalIndexer <Analyzer> file...} */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: IncrementalIndexer <AnalyzerName> <delta file>...");
+            return;
+        }
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(args[0]);
+        Path indexPath;
+        try (AnalyzerIndexCache indexes = new AnalyzerIndexCache(CranFieldParserIndexer.ROOT_INDEX_PATH,
+                new File(CranFieldParserIndexer.CRAN_FILE))) {
+            indexPath = indexes.ensureDeltaIndex(args[0], analyzer);
+        }
+        try (IncrementalIndexer indexer = new IncrementalIndexer(indexPath, analyzer, new SearcherFactory())) {
+            for (int i = 1; i < args.length; i++) indexer.apply(new File(args[i]));
+        }
+    }
+}
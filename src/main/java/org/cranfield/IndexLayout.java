@@ -0,0 +1,205 @@
+package org.cranfield;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene100.Lucene100Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.*;
+
+import java.util.*;
+
+/**
+ * How {@link CranFieldParserIndexer#buildIndex} writes each Cranfield field:
+ * index options, norms, whether the text is stored and whether term vectors
+ * are kept, plus the stored fields compression mode of the codec. The id
+ * field (stored, with sorted doc values) is the same in every layout.
+ *
+ * <ul>
+ *   <li>{@code default}: title and body with offsets, norms, stored text and term vectors;
+ *       author positions, norms, stored; biblio positions, norms, not stored; BEST_SPEED</li>
+ *   <li>{@code compressed}: {@code default} with BEST_COMPRESSION stored fields</li>
+ *   <li>{@code compact}: {@code default} without what nothing reads: author indexed
+ *       docs-only without norms and not stored (it is only ever a filter), biblio not indexed</li>
+ *   <li>{@code minimal}: batch evaluation only; title and body freqs and norms, author as in
+ *       {@code compact}, nothing stored but the id, BEST_COMPRESSION. Snippets come out
+ *       empty, RM3 has no term vectors to expand from and phrase queries fail.</li>
+ * </ul>
+ *
+ * Title and body without offsets make {@link SnippetGenerator} re-analyze the stored text.
+ * The profile is {@code -Dcranfield.layout=<name>}; single fields can be overridden with
+ * e.g. {@code -Dcranfield.layout.body=positions,nonorms} (index options {@code none},
+ * {@code docs}, {@code freqs}, {@code positions} or {@code offsets}, and
+ * {@code [no]norms}, {@code stored}/{@code unstored}, {@code [no]vectors}), and the
+ * compression with {@code -Dcranfield.layout.storedFields=speed|compression}.
+ */
+public class IndexLayout {
+
+    private static final String PROPERTY = "cranfield.layout";
+    public static final List<String> PROFILES = List.of("default", "compressed", "compact", "minimal");
+
+    /** One field's settings; {@link IndexOptions#NONE} leaves it out of the inverted index. */
+    public record FieldLayout(IndexOptions indexOptions, boolean norms, boolean stored, boolean termVectors) {
+        public FieldLayout {
+            if (termVectors && indexOptions == IndexOptions.NONE) {
+                throw new IllegalArgumentException("term vectors need an indexed field");
+            }
+        }
+
+        public boolean indexed() {
+            return indexOptions != IndexOptions.NONE;
+        }
+
+        /** Field type for the text; {@code withStored} false for token-stream fields whose value is stored separately. */
+        FieldType fieldType(boolean withStored) {
+            FieldType type = new FieldType();
+            type.setTokenized(true);
+            type.setIndexOptions(indexOptions);
+            type.setOmitNorms(!norms);
+            type.setStoreTermVectors(termVectors);
+            type.setStored(stored && withStored);
+            type.freeze();
+            return type;
+        }
+
+        /** Applies comma-separated options such as {@code docs,nonorms,unstored}. */
+        FieldLayout with(String options) {
+            FieldLayout f = this;
+            for (String o : options.trim().split("\\s*,\\s*")) {
+                f = switch (o) {
+                    case "none" -> new FieldLayout(IndexOptions.NONE, f.norms, f.stored, false);
+                    case "docs" -> new FieldLayout(IndexOptions.DOCS, f.norms, f.stored, f.termVectors);
+                    case "freqs" -> new FieldLayout(IndexOptions.DOCS_AND_FREQS, f.norms, f.stored, f.termVectors);
+                    case "positions" -> new FieldLayout(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS, f.norms, f.stored,
+                            f.termVectors);
+                    case "offsets" -> new FieldLayout(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS, f.norms,
+                            f.stored, f.termVectors);
+                    case "norms", "nonorms" -> new FieldLayout(f.indexOptions, o.equals("norms"), f.stored, f.termVectors);
+                    case "stored", "unstored" -> new FieldLayout(f.indexOptions, f.norms, o.equals("stored"), f.termVectors);
+                    case "vectors", "novectors" -> new FieldLayout(f.indexOptions, f.norms, f.stored, o.equals("vectors"));
+                    default -> throw new IllegalArgumentException("Unknown field layout option: " + o);
+                };
+            }
+            return f;
+        }
+
+        @Override
+        public String toString() {
+            String index = switch (indexOptions) {
+                case NONE -> "none";
+                case DOCS -> "docs";
+                case DOCS_AND_FREQS -> "freqs";
+                case DOCS_AND_FREQS_AND_POSITIONS -> "positions";
+                case DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS -> "offsets";
+            };
+            return index + (norms ? ",norms" : ",nonorms") + (stored ? ",stored" : ",unstored")
+                    + (termVectors ? ",vectors" : "");
+        }
+    }
+
+    private static final FieldLayout TEXT = new FieldLayout(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS,
+            true, true, true);
+    private static final FieldLayout STORED_KEYWORDS = new FieldLayout(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS,
+            true, true, false);
+    private static final FieldLayout FILTER_ONLY = new FieldLayout(IndexOptions.DOCS, false, false, false);
+    private static final FieldLayout DROPPED = new FieldLayout(IndexOptions.NONE, false, false, false);
+
+    private final String name;
+    private final Map<String, FieldLayout> fields = new LinkedHashMap<>();
+    private Lucene100Codec.Mode storedFieldsMode = Lucene100Codec.Mode.BEST_SPEED;
+
+    private IndexLayout(String name) {
+        this.name = name;
+        fields.put("title", TEXT);
+        fields.put("author", STORED_KEYWORDS);
+        fields.put("biblio", STORED_KEYWORDS.with("unstored"));
+        fields.put("body", TEXT);
+    }
+
+    public static IndexLayout defaults() {
+        return new IndexLayout("default");
+    }
+
+    /** One of {@link #PROFILES}. */
+    public static IndexLayout profile(String name) {
+        IndexLayout layout = new IndexLayout(name);
+        switch (name) {
+            case "default" -> {
+            }
+            case "compressed" -> layout.storedFields(Lucene100Codec.Mode.BEST_COMPRESSION);
+            case "compact" -> layout.field("author", FILTER_ONLY).field("biblio", DROPPED);
+            case "minimal" -> layout.field("title", TEXT.with("freqs,unstored,novectors"))
+                    .field("body", TEXT.with("freqs,unstored,novectors"))
+                    .field("author", FILTER_ONLY).field("biblio", DROPPED)
+                    .storedFields(Lucene100Codec.Mode.BEST_COMPRESSION);
+            default -> throw new IllegalArgumentException("Unknown index layout: " + name + " (one of " + PROFILES + ")");
+        }
+        return layout;
+    }
+
+    /** The {@code cranfield.layout} profile with any {@code cranfield.layout.*} overrides applied. */
+    public static IndexLayout fromSystemProperties() {
+        String v = System.getProperty(PROPERTY);
+        IndexLayout layout = profile(v == null || v.isBlank() ? "default" : v.trim());
+        for (String field : AnalyzedTokenCache.CORPUS_FIELDS) {
+            if ((v = System.getProperty(PROPERTY + "." + field)) != null) layout.field(field, layout.get(field).with(v));
+        }
+        if ((v = System.getProperty(PROPERTY + ".storedFields")) != null) {
+            layout.storedFields(switch (v.trim()) {
+                case "speed" -> Lucene100Codec.Mode.BEST_SPEED;
+                case "compression" -> Lucene100Codec.Mode.BEST_COMPRESSION;
+                default -> throw new IllegalArgumentException("storedFields must be speed or compression: " + v);
+            });
+        }
+        return layout;
+    }
+
+    /** title, author, biblio or body. */
+    public IndexLayout field(String field, FieldLayout layout) {
+        if (!fields.containsKey(field)) throw new IllegalArgumentException("Unknown field: " + field);
+        fields.put(field, layout);
+        return this;
+    }
+
+    public IndexLayout storedFields(Lucene100Codec.Mode mode) {
+        this.storedFieldsMode = mode;
+        return this;
+    }
+
+    public FieldLayout get(String field) {
+        return fields.get(field);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Codec codec() {
+        return new Lucene100Codec(storedFieldsMode);
+    }
+
+    /** Every setting in one line; kept in commit data so an index is rebuilt when its layout changes. */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, FieldLayout> e : fields.entrySet()) {
+            sb.append(e.getKey()).append('=').append(e.getValue()).append(';');
+        }
+        return sb.append("storedFields=").append(storedFieldsMode).toString();
+    }
+
+    /**
+     * Suffix for index directories: empty for the default layout so existing
+     * paths stay put, the profile name otherwise, plus a hash when fields were overridden.
+     */
+    String pathSuffix() {
+        if (describe().equals(defaults().describe())) return "";
+        String suffix = "_" + name;
+        if (PROFILES.contains(name) && !describe().equals(profile(name).describe())) {
+            suffix += "-" + Integer.toHexString(describe().hashCode());
+        }
+        return suffix;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + describe() + ")";
+    }
+}
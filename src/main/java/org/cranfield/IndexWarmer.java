@@ -0,0 +1,150 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Runs a sample of cran.qry against a freshly opened searcher before it
+ * serves real queries, so the first user queries do not pay for page faults
+ * on the terms dictionary and postings, lazily built reader structures, and
+ * the JIT compiling the scoring loops. Every hit's id and display fields are
+ * read as well, so stored fields and doc values are touched too.
+ *
+ * The sample size is {@code -Dcranfield.warmup.queries} (default 50, 0 disables).
+ */
+public final class IndexWarmer {
+
+    public static final String QUERIES_PROPERTY = "cranfield.warmup.queries";
+    private static final int DEFAULT_QUERIES = 50;
+    private static final int WARMUP_K = 10;
+
+    private final String queriesFile;
+    private final int sampleSize;
+
+    public IndexWarmer(String queriesFile, int sampleSize) {
+        if (sampleSize < 0) throw new IllegalArgumentException("sampleSize must be >= 0: " + sampleSize);
+        this.queriesFile = queriesFile;
+        this.sampleSize = sampleSize;
+    }
+
+    /** Warmer over cran.qry sized by {@code -Dcranfield.warmup.queries}. */
+    public static IndexWarmer fromSystemProperties(String queriesFile) {
+        String v = System.getProperty(QUERIES_PROPERTY);
+        return new IndexWarmer(queriesFile, v == null || v.isBlank() ? DEFAULT_QUERIES : Integer.parseInt(v.trim()));
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /** Latencies of a warmup pass, and separately that of its first (coldest) query; 0 if nothing ran. */
+    public record Warmup(QueryMetrics metrics, long firstQueryNanos) {}
+
+    /**
+     * Runs up to {@link #getSampleSize()} queries, spread evenly over the query
+     * file, and returns their latencies (the cold ones are the first few).
+     */
+    public Warmup warm(IndexSearcher searcher, Analyzer analyzer, float titleBoost, float bodyBoost)
+            throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        if (sampleSize == 0) return new Warmup(metrics, 0);
+        List<QueryCompiler.CompiledQuery> queries = QueryCompiler.compile(queriesFile, analyzer, titleBoost, bodyBoost);
+        int n = Math.min(sampleSize, queries.size());
+        long start = System.nanoTime(), first = 0;
+        for (int i = 0; i < n; i++) {
+            runQuery(searcher, queries.get((int) ((long) i * queries.size() / n)), metrics);
+            if (i == 0) first = System.nanoTime() - start;
+        }
+        metrics.addWallTime(System.nanoTime() - start);
+        return new Warmup(metrics, first);
+    }
+
+    /** Searches one query and materializes its hits, recording the phases in {@code metrics}. */
+    public static void runQuery(IndexSearcher searcher, QueryCompiler.CompiledQuery query, QueryMetrics metrics)
+            throws IOException {
+        long t0 = System.nanoTime();
+        TopKSearch.Result r = TopKSearch.search(searcher, query.query(), WARMUP_K, TopKSearch.threshold(WARMUP_K));
+        long t1 = System.nanoTime();
+        TopDocs topDocs = r.topDocs();
+        DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+        StoredFields storedFields = searcher.storedFields();
+        for (ScoreDoc sd : topDocs.scoreDocs) {
+            ids.get(sd.doc);
+            storedFields.document(sd.doc, CranFieldParserIndexer.DISPLAY_FIELDS);
+        }
+        metrics.record(0, t1 - t0, System.nanoTime() - t1);
+        metrics.addDocsScored(r.docsScored());
+    }
+
+    /**
+     * Cold versus warm latency per directory mode. For each mode a new reader
+     * is opened and the first {@code firstN} queries of cran.qry are timed
+     * straight away (cold), then after a warmup of the given sample (warm).
+     * Rows go to output/warmup_latency.csv as &lt;mode&gt;_cold and &lt;mode&gt;_warm.
+     * The OS page cache is not dropped, so "cold" here is a cold JVM-side
+     * reader on a warm file cache; run on a fresh machine for the disk-cold case.
+     * The JIT also stays warm from one mode to the next, so only the first mode
+     * listed sees a fully cold JVM.
+     *
+     * Usage: IndexWarmer &lt;Analyzer&gt; &lt;firstN&gt; &lt;sample&gt; [mode...]
+     * e.g. {@code IndexWarmer EnglishAnalyzer 20 50 fs mmap niofs heap}
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: IndexWarmer <Analyzer> <firstN> <sample> [fs|mmap|niofs|heap]...");
+            return;
+        }
+        String analyzerName = args[0];
+        int firstN = Integer.parseInt(args[1]);
+        IndexWarmer warmer = new IndexWarmer("cran/cran.qry", Integer.parseInt(args[2]));
+        String[] modes = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length)
+                : new String[]{"fs", "mmap", "niofs", "heap"};
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+
+        Path indexPath;
+        try (AnalyzerIndexCache cache = new AnalyzerIndexCache("index/", new File("cran/cran.all.1400"))) {
+            indexPath = cache.ensureIndex(analyzerName, analyzer);
+        }
+        List<QueryCompiler.CompiledQuery> queries = QueryCompiler.compile("cran/cran.qry", analyzer, 2.0f, 1.0f);
+        firstN = Math.min(firstN, queries.size());
+
+        Map<String, QueryMetrics> byRun = new LinkedHashMap<>();
+        for (String mode : modes) {
+            DirectoryOptions options = DirectoryOptions.defaults().mode(mode);
+            for (boolean warmFirst : new boolean[]{false, true}) {
+                long open0 = System.nanoTime();
+                Directory dir = options.open(indexPath);
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                    long openNanos = System.nanoTime() - open0;
+                    IndexSearcher searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2);
+                    long warmNanos = 0;
+                    if (warmFirst) {
+                        long w0 = System.nanoTime();
+                        warmer.warm(searcher, analyzer, 2.0f, 1.0f);
+                        warmNanos = System.nanoTime() - w0;
+                    }
+                    QueryMetrics metrics = new QueryMetrics();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < firstN; i++) runQuery(searcher, queries.get(i), metrics);
+                    metrics.addWallTime(System.nanoTime() - start);
+                    String runName = mode + (warmFirst ? "_warm" : "_cold");
+                    byRun.put(runName, metrics);
+                    System.out.printf("%-12s open %7.1f ms | warmup %7.1f ms | first %d: %s%n", runName, openNanos / 1e6,
+                            warmNanos / 1e6, firstN, metrics.summary());
+                } finally {
+                    dir.close();
+                }
+            }
+        }
+        QueryMetrics.writeCsv("output/warmup_latency.csv", byRun);
+    }
+}
@@ -0,0 +1,114 @@
+package org.cranfield;
+
+import org.apache.lucene.index.*;
+
+/**
+ * Indexing knobs for {@link CranFieldParserIndexer#buildIndex}: number of
+ * indexing threads, RAM buffer, merge scheduler and policy, whether to
+ * force-merge to a single segment once all documents are added, and the
+ * {@link IndexLayout} (fields and codec) to write.
+ *
+ * Defaults match a plain {@code new IndexWriterConfig(analyzer)} with one
+ * indexing thread, so doc ids stay in file order unless threads are raised.
+ * Every setting can also be given as a system property, e.g.
+ * {@code -Dcranfield.index.threads=8 -Dcranfield.index.ramBufferMB=256}; the layout
+ * comes from {@code cranfield.layout*}, see {@link IndexLayout#fromSystemProperties}.
+ */
+public class IndexingOptions {
+
+    private static final String PREFIX = "cranfield.index.";
+
+    private int threads = 1;
+    private double ramBufferMB = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
+    private String mergeScheduler = "concurrent";
+    private String mergePolicy = "tiered";
+    private boolean forceMerge = false;
+    private IndexLayout layout = IndexLayout.defaults();
+
+    public static IndexingOptions defaults() {
+        return new IndexingOptions();
+    }
+
+    /** Defaults overridden by any {@code cranfield.index.*} system properties that are set. */
+    public static IndexingOptions fromSystemProperties() {
+        IndexingOptions o = new IndexingOptions();
+        String v;
+        if ((v = System.getProperty(PREFIX + "threads")) != null) o.threads(Integer.parseInt(v.trim()));
+        if ((v = System.getProperty(PREFIX + "ramBufferMB")) != null) o.ramBufferMB(Double.parseDouble(v.trim()));
+        if ((v = System.getProperty(PREFIX + "mergeScheduler")) != null) o.mergeScheduler(v.trim());
+        if ((v = System.getProperty(PREFIX + "mergePolicy")) != null) o.mergePolicy(v.trim());
+        if ((v = System.getProperty(PREFIX + "forceMerge")) != null) o.forceMerge(Boolean.parseBoolean(v.trim()));
+        o.layout(IndexLayout.fromSystemProperties());
+        return o;
+    }
+
+    public IndexingOptions threads(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    public IndexingOptions ramBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+        return this;
+    }
+
+    /** "concurrent" (ConcurrentMergeScheduler) or "serial" (SerialMergeScheduler). */
+    public IndexingOptions mergeScheduler(String mergeScheduler) {
+        this.mergeScheduler = mergeScheduler;
+        return this;
+    }
+
+    /** "tiered", "logbyte", "logdoc" or "none" (NoMergePolicy). */
+    public IndexingOptions mergePolicy(String mergePolicy) {
+        this.mergePolicy = mergePolicy;
+        return this;
+    }
+
+    public IndexingOptions forceMerge(boolean forceMerge) {
+        this.forceMerge = forceMerge;
+        return this;
+    }
+
+    public IndexingOptions layout(IndexLayout layout) {
+        this.layout = layout;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isForceMerge() {
+        return forceMerge;
+    }
+
+    public IndexLayout getLayout() {
+        return layout;
+    }
+
+    /** Applies the RAM buffer, merge scheduler, merge policy and the layout's codec to {@code iwc}. */
+    public IndexWriterConfig apply(IndexWriterConfig iwc) {
+        iwc.setRAMBufferSizeMB(ramBufferMB);
+        iwc.setCodec(layout.codec());
+        iwc.setMergeScheduler(switch (mergeScheduler) {
+            case "concurrent" -> new ConcurrentMergeScheduler();
+            case "serial" -> new SerialMergeScheduler();
+            default -> throw new IllegalArgumentException("Unknown merge scheduler: " + mergeScheduler);
+        });
+        iwc.setMergePolicy(switch (mergePolicy) {
+            case "tiered" -> new TieredMergePolicy();
+            case "logbyte" -> new LogByteSizeMergePolicy();
+            case "logdoc" -> new LogDocMergePolicy();
+            case "none" -> NoMergePolicy.INSTANCE;
+            default -> throw new IllegalArgumentException("Unknown merge policy: " + mergePolicy);
+        });
+        return iwc;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("threads=%d ramBufferMB=%.0f mergeScheduler=%s mergePolicy=%s forceMerge=%s layout=%s",
+                threads, ramBufferMB, mergeScheduler, mergePolicy, forceMerge, layout.getName());
+    }
+}
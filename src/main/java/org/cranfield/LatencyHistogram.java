@@ -0,0 +1,87 @@
+package org.cranfield;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Fixed-size, lock-free latency histogram in the style of HdrHistogram.
+ * Values (nanoseconds) below 128 get exact buckets; above that every power
+ * of two is split into 64 linear sub-buckets, so any recorded value is
+ * reported within 1/64 (~1.6%) of its true value. Recording is a single
+ * atomic increment and never allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;      // 128 exact buckets
+    private static final int HALF_SUB = SUB_COUNT >> 1;      // 64 sub-buckets per power of two
+    private static final int MAX_SHIFT = 63 - (SUB_BITS - 1);
+    private static final int BUCKETS = SUB_COUNT + MAX_SHIFT * HALF_SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulate(v);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Value at the given percentile (0-100), as the upper edge of its bucket, capped at the max. */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(upperEdge(i), max.get());
+        }
+        return max.get();
+    }
+
+    /** Adds every value recorded in {@code other} to this histogram. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulate(other.max.get());
+    }
+
+    private static int bucketOf(long v) {
+        if (v < SUB_COUNT) return (int) v;
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        int shift = msb - (SUB_BITS - 1);
+        int sub = (int) (v >>> shift);   // in [64, 128)
+        return SUB_COUNT + (shift - 1) * HALF_SUB + (sub - HALF_SUB);
+    }
+
+    private static long upperEdge(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int shift = (bucket - SUB_COUNT) / HALF_SUB + 1;
+        long sub = (bucket - SUB_COUNT) % HALF_SUB + HALF_SUB;
+        long edge = ((sub + 1) << shift) - 1;
+        return edge < 0 ? Long.MAX_VALUE : edge;
+    }
+}
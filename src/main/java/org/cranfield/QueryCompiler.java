@@ -0,0 +1,145 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles cran.qry into ready-to-run queries without going through the query parser.
+ *
+ * Each query's raw text is analyzed exactly once into its token list, and the
+ * tokens are built directly into the shape MultiFieldQueryParser produces: a
+ * SHOULD clause per token holding {@code title:t^titleBoost body:t^bodyBoost}.
+ * Token lists are cached per analyzer and queries per analyzer and boosts.
+ * Queries are immutable, so every similarity in a sweep and every query thread
+ * shares the same objects.
+ */
+public final class QueryCompiler {
+
+    /** A compiled query; {@code terms} is the space-joined token list, usable as a cache key. */
+    public record CompiledQuery(String qid, String terms, Query query) {}
+
+    private static final Map<Analyzer, Map<String, LinkedHashMap<String, List<String>>>> TOKENS =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<Analyzer, Map<String, List<CompiledQuery>>> QUERIES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private record TokenCacheRef(Path dir, String analyzerName) {}
+
+    private static final Map<Analyzer, TokenCacheRef> TOKEN_CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private QueryCompiler() {}
+
+    /**
+     * Reads this analyzer's query tokens from an {@link AnalyzedTokenCache} under
+     * {@code dir} (writing it on first use) instead of running the analyzer.
+     */
+    public static void useTokenCache(Analyzer analyzer, String analyzerName, Path dir) {
+        TOKEN_CACHES.put(analyzer, new TokenCacheRef(dir, analyzerName));
+    }
+
+    /** Queries of {@code queriesFile} in qid order, compiled once per analyzer and boost pair. */
+    public static List<CompiledQuery> compile(String queriesFile, Analyzer analyzer, float titleBoost,
+                                              float bodyBoost) throws IOException {
+        String key = fileKey(queriesFile) + "|" + titleBoost + "|" + bodyBoost;
+        Map<String, List<CompiledQuery>> byFile = QUERIES.computeIfAbsent(analyzer, a -> new ConcurrentHashMap<>());
+        try {
+            return byFile.computeIfAbsent(key, k -> {
+                try {
+                    List<CompiledQuery> compiled = new ArrayList<>();
+                    for (Map.Entry<String, List<String>> e : tokens(queriesFile, analyzer).entrySet()) {
+                        compiled.add(new CompiledQuery(e.getKey(), String.join(" ", e.getValue()),
+                                compile(e.getValue(), titleBoost, bodyBoost)));
+                    }
+                    return List.copyOf(compiled);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /** Analyzed tokens of every query, keyed by qid; cached per analyzer. */
+    public static LinkedHashMap<String, List<String>> tokens(String queriesFile, Analyzer analyzer) throws IOException {
+        Map<String, LinkedHashMap<String, List<String>>> byFile = TOKENS.computeIfAbsent(analyzer, a -> new ConcurrentHashMap<>());
+        try {
+            return byFile.computeIfAbsent(fileKey(queriesFile), k -> {
+                try {
+                    TokenCacheRef ref = TOKEN_CACHES.get(analyzer);
+                    if (ref != null) {
+                        return AnalyzedTokenCache.queryTokens(ref.dir(), ref.analyzerName(), analyzer, queriesFile);
+                    }
+                    LinkedHashMap<String, List<String>> tokens = new LinkedHashMap<>();
+                    for (Map.Entry<String, String> e : CranFieldParserIndexer.loadRawQueries(queriesFile).entrySet()) {
+                        tokens.put(e.getKey(), List.copyOf(analyze(e.getValue(), analyzer)));
+                    }
+                    return tokens;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static List<String> analyze(String text, Analyzer analyzer) throws IOException {
+        List<String> terms = new ArrayList<>();
+        try (TokenStream tokenStream = analyzer.tokenStream("", text)) {
+            CharTermAttribute attr = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                terms.add(attr.toString());
+            }
+            tokenStream.end();
+        }
+        return terms;
+    }
+
+    /**
+     * Builds the title/body disjunction for already analyzed terms. The result
+     * equals what MultiFieldQueryParser returns for the same terms, so scores
+     * are unchanged; an empty term list matches nothing.
+     */
+    public static Query compile(List<String> terms, float titleBoost, float bodyBoost) {
+        if (terms.size() == 1) return termQuery(terms.get(0), titleBoost, bodyBoost);
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String term : terms) {
+            builder.add(termQuery(term, titleBoost, bodyBoost), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /** Like {@link #compile(List, float, float)}, with each term's clause boosted by its weight. */
+    public static Query compile(List<String> terms, float[] weights, float titleBoost, float bodyBoost) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int i = 0; i < terms.size(); i++) {
+            builder.add(new BoostQuery(termQuery(terms.get(i), titleBoost, bodyBoost), weights[i]), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private static Query termQuery(String term, float titleBoost, float bodyBoost) {
+        return new BooleanQuery.Builder()
+                .add(new BoostQuery(new TermQuery(new Term("title", term)), titleBoost), BooleanClause.Occur.SHOULD)
+                .add(new BoostQuery(new TermQuery(new Term("body", term)), bodyBoost), BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    /** Cache key for a queries file; changes when the file is edited. */
+    private static String fileKey(String queriesFile) {
+        File f = new File(queriesFile).getAbsoluteFile();
+        return f.getPath() + "@" + f.lastModified() + ":" + f.length();
+    }
+}
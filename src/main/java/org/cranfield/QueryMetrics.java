@@ -0,0 +1,109 @@
+package org.cranfield;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-query latency for one run (one analyzer/similarity/boost combination),
+ * split into query parsing, {@code searcher.search}, and hit materialization
+ * (resolving ids / loading display fields). Safe to record from several
+ * query threads at once.
+ */
+public class QueryMetrics {
+
+    public static final String LATENCY_CSV = "output/latency_summary.csv";
+    public static final String CSV_HEADER = "Run,Phase,Queries,QPS,Mean_ms,p50_ms,p95_ms,p99_ms,Max_ms";
+
+    /** EXPAND is only recorded for runs with query expansion (feedback pass plus building the new query). */
+    public enum Phase { PARSE, EXPAND, SEARCH, MATERIALIZE, TOTAL }
+
+    private final EnumMap<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+    private final AtomicLong wallNanos = new AtomicLong();
+    private final AtomicLong docsScored = new AtomicLong();
+
+    public QueryMetrics() {
+        for (Phase phase : Phase.values()) histograms.put(phase, new LatencyHistogram());
+    }
+
+    /** Records one query's phase timings (nanoseconds); TOTAL is their sum. */
+    public void record(long parseNanos, long searchNanos, long materializeNanos) {
+        histograms.get(Phase.PARSE).record(parseNanos);
+        histograms.get(Phase.SEARCH).record(searchNanos);
+        histograms.get(Phase.MATERIALIZE).record(materializeNanos);
+        histograms.get(Phase.TOTAL).record(parseNanos + searchNanos + materializeNanos);
+    }
+
+    /** As {@link #record(long, long, long)} for a query that also went through expansion. */
+    public void record(long parseNanos, long expandNanos, long searchNanos, long materializeNanos) {
+        histograms.get(Phase.PARSE).record(parseNanos);
+        histograms.get(Phase.EXPAND).record(expandNanos);
+        histograms.get(Phase.SEARCH).record(searchNanos);
+        histograms.get(Phase.MATERIALIZE).record(materializeNanos);
+        histograms.get(Phase.TOTAL).record(parseNanos + expandNanos + searchNanos + materializeNanos);
+    }
+
+    /** Adds elapsed wall-clock time for a batch of queries; QPS is queries over this time. */
+    public void addWallTime(long nanos) {
+        wallNanos.addAndGet(nanos);
+    }
+
+    /** Adds the documents a query's collector scored, see {@link TopKSearch.Result#docsScored}. */
+    public void addDocsScored(long docs) {
+        docsScored.addAndGet(docs);
+    }
+
+    public double getDocsScoredPerQuery() {
+        long n = histograms.get(Phase.TOTAL).getCount();
+        return n == 0 ? 0 : (double) docsScored.get() / n;
+    }
+
+    public LatencyHistogram get(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    public double getQps() {
+        long wall = wallNanos.get();
+        return wall == 0 ? 0 : histograms.get(Phase.TOTAL).getCount() / (wall / 1e9);
+    }
+
+    /** One-line p50/p95/p99/max summary of the TOTAL phase. */
+    public String summary() {
+        LatencyHistogram h = histograms.get(Phase.TOTAL);
+        String s = String.format("%d queries | QPS %.1f | p50 %.3f ms | p95 %.3f ms | p99 %.3f ms | max %.3f ms",
+                h.getCount(), getQps(), ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(95)),
+                ms(h.getValueAtPercentile(99)), ms(h.getMaxNanos()));
+        LatencyHistogram expand = histograms.get(Phase.EXPAND);
+        if (expand.getCount() > 0) {
+            s += String.format(" | expand p50 %.3f ms p99 %.3f ms", ms(expand.getValueAtPercentile(50)),
+                    ms(expand.getValueAtPercentile(99)));
+        }
+        return docsScored.get() == 0 ? s : s + String.format(" | %.0f docs scored/query", getDocsScoredPerQuery());
+    }
+
+    private void writeRows(PrintWriter pw, String runName) {
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram h = histograms.get(phase);
+            if (phase == Phase.EXPAND && h.getCount() == 0) continue;
+            pw.printf(Locale.ROOT, "%s,%s,%d,%.2f,%.4f,%.4f,%.4f,%.4f,%.4f%n", runName, phase, h.getCount(), getQps(),
+                    h.getMeanNanos() / 1e6, ms(h.getValueAtPercentile(50)), ms(h.getValueAtPercentile(95)),
+                    ms(h.getValueAtPercentile(99)), ms(h.getMaxNanos()));
+        }
+    }
+
+    /** Writes one row per run and phase, runs in name order. */
+    public static void writeCsv(String file, Map<String, QueryMetrics> byRun) throws IOException {
+        new File(file).getAbsoluteFile().getParentFile().mkdirs();
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            pw.println(CSV_HEADER);
+            for (Map.Entry<String, QueryMetrics> e : new TreeMap<>(byRun).entrySet()) {
+                e.getValue().writeRows(pw, e.getKey());
+            }
+        }
+        System.out.println("Latency summary CSV generated at: " + file);
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
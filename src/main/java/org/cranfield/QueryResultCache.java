@@ -0,0 +1,147 @@
+package org.cranfield;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of top-k results in front of an {@link IndexSearcher}.
+ *
+ * Entries are keyed by the reader they were computed on, the searcher's
+ * similarity (including its parameters), the query as executed and k. The key
+ * holds the parsed {@link Query} itself rather than its text, so operators,
+ * phrases, per-term boosts, field boosts and filter clauses all distinguish
+ * entries. Settings outside the query that change the hits (reranking, query
+ * expansion) go in a variant string. When a reader is closed every entry
+ * computed on it is dropped, so a reopened or rebuilt index never serves stale hits.
+ */
+public class QueryResultCache {
+
+    public static final String SIZE_PROPERTY = "cranfield.queryCache.size";
+    private static final int DEFAULT_SIZE = 1024;
+
+    /** Everything that can change the result list of a query. */
+    public record Key(IndexReader.CacheKey readerKey, String similarity, Query query, String variant, int topK) {}
+
+    private record Entry(TotalHits totalHits, int[] docs, float[] scores) {
+        TopDocs toTopDocs() {
+            ScoreDoc[] scoreDocs = new ScoreDoc[docs.length];
+            for (int i = 0; i < docs.length; i++) scoreDocs[i] = new ScoreDoc(docs[i], scores[i]);
+            return new TopDocs(totalHits, scoreDocs);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Search {
+        TopDocs run() throws Exception;
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Set<IndexReader.CacheKey> trackedReaders = new HashSet<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public QueryResultCache(int maxEntries) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1: " + maxEntries);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > QueryResultCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Cache sized by -Dcranfield.queryCache.size (default 1024 entries). */
+    public static QueryResultCache fromSystemProperties() {
+        String prop = System.getProperty(SIZE_PROPERTY);
+        return new QueryResultCache(prop == null || prop.isBlank() ? DEFAULT_SIZE : Integer.parseInt(prop.trim()));
+    }
+
+    /**
+     * Builds the key for {@code query} (with its filters) on this searcher, or
+     * returns null when the reader cannot be cached (it exposes no reader cache helper).
+     */
+    public Key key(IndexSearcher searcher, Query query, String variant, int topK) {
+        IndexReader.CacheHelper helper = searcher.getIndexReader().getReaderCacheHelper();
+        if (helper == null) return null;
+        IndexReader.CacheKey readerKey = helper.getKey();
+        synchronized (this) {
+            if (trackedReaders.add(readerKey)) {
+                helper.addClosedListener(this::dropReader);
+            }
+        }
+        return new Key(readerKey, searcher.getSimilarity().toString(), query, variant == null ? "" : variant, topK);
+    }
+
+    /** Returns the cached hits for {@code key}, running and caching {@code search} on a miss. */
+    public TopDocs get(Key key, Search search) throws Exception {
+        if (key == null) return search.run();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.increment();
+            return entry.toTopDocs();
+        }
+        misses.increment();
+        TopDocs topDocs = search.run();
+        int[] docs = new int[topDocs.scoreDocs.length];
+        float[] scores = new float[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = topDocs.scoreDocs[i].doc;
+            scores[i] = topDocs.scoreDocs[i].score;
+        }
+        synchronized (this) {
+            if (trackedReaders.contains(key.readerKey())) {
+                entries.put(key, new Entry(topDocs.totalHits, docs, scores));
+            }
+        }
+        return topDocs;
+    }
+
+    private synchronized void dropReader(IndexReader.CacheKey readerKey) {
+        trackedReaders.remove(readerKey);
+        entries.keySet().removeIf(k -> k.readerKey() == readerKey);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d entries | hits %d | misses %d | evictions %d | hit rate %.1f%%",
+                size(), maxEntries, getHitCount(), getMissCount(), getEvictionCount(), getHitRate() * 100);
+    }
+}
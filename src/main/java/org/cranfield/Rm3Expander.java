@@ -0,0 +1,217 @@
+package org.cranfield;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.IntroSorter;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * RM3 pseudo-relevance feedback. The query is run once for the top
+ * {@code fbDocs} documents; their title/body term vectors give a relevance
+ * model P(t|R) = sum over D of P(t|D) * P(D|Q), with P(t|D) = tf / |D| and
+ * P(D|Q) the first-pass score normalized over the feedback set. The
+ * {@code fbTerms} best terms are then interpolated with the original query:
+ * {@code originalWeight} x the original terms + (1 - originalWeight) x the
+ * expansion terms, each as a boosted title/body clause.
+ *
+ * Term statistics are accumulated in a {@link BytesRefHash} with parallel
+ * primitive arrays, so the extra cost per query is one pruned top-{@code fbDocs}
+ * search plus reading {@code fbDocs} term vectors.
+ *
+ * Batch runs use it through {@link BatchSearchOptions#expander}, or
+ * {@code -Dcranfield.rm3=true} with {@code -Dcranfield.rm3.fbDocs} (default 10),
+ * {@code -Dcranfield.rm3.fbTerms} (default 10) and {@code -Dcranfield.rm3.originalWeight} (default 0.5).
+ */
+public final class Rm3Expander {
+
+    public static final String RM3_PROPERTY = "cranfield.rm3";
+    public static final String FB_DOCS_PROPERTY = "cranfield.rm3.fbDocs";
+    public static final String FB_TERMS_PROPERTY = "cranfield.rm3.fbTerms";
+    public static final String ORIGINAL_WEIGHT_PROPERTY = "cranfield.rm3.originalWeight";
+
+    private static final String[] FEEDBACK_FIELDS = {"title", "body"};
+
+    /** The expanded query and the documents scored by the feedback pass. */
+    public record Expansion(QueryCompiler.CompiledQuery query, long docsScored) {}
+
+    private final int fbDocs;
+    private final int fbTerms;
+    private final float originalWeight;
+
+    public Rm3Expander(int fbDocs, int fbTerms, float originalWeight) {
+        if (fbDocs < 1) throw new IllegalArgumentException("fbDocs must be >= 1: " + fbDocs);
+        if (fbTerms < 1) throw new IllegalArgumentException("fbTerms must be >= 1: " + fbTerms);
+        if (originalWeight < 0 || originalWeight > 1) {
+            throw new IllegalArgumentException("originalWeight must be in [0, 1]: " + originalWeight);
+        }
+        this.fbDocs = fbDocs;
+        this.fbTerms = fbTerms;
+        this.originalWeight = originalWeight;
+    }
+
+    /** Expander from {@code -Dcranfield.rm3*}, or null unless {@code -Dcranfield.rm3=true}. */
+    public static Rm3Expander fromSystemProperties() {
+        if (!Boolean.getBoolean(RM3_PROPERTY)) return null;
+        return new Rm3Expander(intProperty(FB_DOCS_PROPERTY, 10), intProperty(FB_TERMS_PROPERTY, 10),
+                Float.parseFloat(System.getProperty(ORIGINAL_WEIGHT_PROPERTY, "0.5").trim()));
+    }
+
+    private static int intProperty(String name, int def) {
+        String v = System.getProperty(name);
+        return v == null || v.isBlank() ? def : Integer.parseInt(v.trim());
+    }
+
+    /** e.g. {@code rm3-10-10-0.5}, used in run names and cache keys. */
+    public String name() {
+        return String.format(Locale.ROOT, "rm3-%d-%d-%.2f", fbDocs, fbTerms, originalWeight);
+    }
+
+    public int getFbDocs() {
+        return fbDocs;
+    }
+
+    public int getFbTerms() {
+        return fbTerms;
+    }
+
+    public float getOriginalWeight() {
+        return originalWeight;
+    }
+
+    /**
+     * Runs the feedback pass on {@code searcher} and returns the expanded query.
+     * The query keeps its original terms, so cache keys and re-rankers see
+     * what the user asked for. Returns the query unchanged when the first
+     * pass finds nothing or the index has no term vectors.
+     */
+    public Expansion expand(IndexSearcher searcher, QueryCompiler.CompiledQuery query,
+                            float titleBoost, float bodyBoost) throws IOException {
+        TopKSearch.Result first = TopKSearch.search(searcher, query.query(), fbDocs, fbDocs);
+        ScoreDoc[] feedback = first.topDocs().scoreDocs;
+        if (feedback.length == 0) return new Expansion(query, first.docsScored());
+
+        BytesRefHash terms = new BytesRefHash();
+        float[] weights = new float[16];
+        int[] docTerms = new int[64];
+        int[] docFreqs = new int[64];
+        double scoreSum = 0;
+        for (ScoreDoc sd : feedback) scoreSum += sd.score;
+
+        TermVectors vectors = searcher.getIndexReader().termVectors();
+        for (ScoreDoc sd : feedback) {
+            // P(D|Q): first-pass scores normalized over the feedback set
+            float docWeight = (float) (scoreSum > 0 ? sd.score / scoreSum : 1.0 / feedback.length);
+            int n = 0;
+            long docLength = 0;
+            for (String field : FEEDBACK_FIELDS) {
+                Terms tv = vectors.get(sd.doc, field);
+                if (tv == null) continue;
+                TermsEnum te = tv.iterator();
+                for (BytesRef term = te.next(); term != null; term = te.next()) {
+                    int freq = (int) te.totalTermFreq();
+                    docLength += freq;
+                    if (!useful(term)) continue;
+                    int id = terms.add(term);
+                    if (id < 0) {
+                        id = -id - 1;
+                    } else if (id >= weights.length) {
+                        weights = ArrayUtil.grow(weights, id + 1);
+                    }
+                    if (n == docTerms.length) {
+                        docTerms = ArrayUtil.grow(docTerms, n + 1);
+                        docFreqs = ArrayUtil.growExact(docFreqs, docTerms.length);
+                    }
+                    docTerms[n] = id;
+                    docFreqs[n++] = freq;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                weights[docTerms[i]] += docWeight * docFreqs[i] / (float) docLength;
+            }
+        }
+        if (terms.size() == 0) return new Expansion(query, first.docsScored());
+
+        int[] best = topTerms(weights, terms.size());
+        float expansionSum = 0;
+        for (int id : best) expansionSum += weights[id];
+
+        // interpolate: originalWeight spread over the original terms, the rest over the expansion terms
+        BytesRefHash combined = new BytesRefHash();
+        float[] combinedWeights = new float[16];
+        List<String> original = query.terms().isEmpty() ? List.of() : Arrays.asList(query.terms().split(" "));
+        for (String t : original) {
+            combinedWeights = addWeight(combined, combinedWeights, new BytesRef(t), originalWeight / original.size());
+        }
+        BytesRef scratch = new BytesRef();
+        for (int id : best) {
+            combinedWeights = addWeight(combined, combinedWeights, terms.get(id, scratch),
+                    (1 - originalWeight) * weights[id] / expansionSum);
+        }
+
+        List<String> expandedTerms = new ArrayList<>(combined.size());
+        float[] expandedWeights = new float[combined.size()];
+        for (int id = 0; id < combined.size(); id++) {
+            expandedTerms.add(combined.get(id, scratch).utf8ToString());
+            expandedWeights[id] = combinedWeights[id];
+        }
+        return new Expansion(new QueryCompiler.CompiledQuery(query.qid(), query.terms(),
+                QueryCompiler.compile(expandedTerms, expandedWeights, titleBoost, bodyBoost)), first.docsScored());
+    }
+
+    private static float[] addWeight(BytesRefHash hash, float[] weights, BytesRef term, float weight) {
+        int id = hash.add(term);
+        if (id < 0) {
+            id = -id - 1;
+        } else if (id >= weights.length) {
+            weights = ArrayUtil.grow(weights, id + 1);
+        }
+        weights[id] += weight;
+        return weights;
+    }
+
+    /** Ids of the {@code fbTerms} highest weights, best first. */
+    private int[] topTerms(float[] weights, int size) {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) ids[i] = i;
+        new IntroSorter() {
+            private float pivot;
+
+            @Override
+            protected void swap(int i, int j) {
+                int tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+
+            @Override
+            protected void setPivot(int i) {
+                pivot = weights[ids[i]];
+            }
+
+            @Override
+            protected int comparePivot(int j) {
+                return Float.compare(weights[ids[j]], pivot);
+            }
+        }.sort(0, size);
+        return Arrays.copyOf(ids, Math.min(fbTerms, size));
+    }
+
+    /** Single characters and pure numbers (equation and figure references in Cranfield) make poor expansions. */
+    private static boolean useful(BytesRef term) {
+        if (term.length <= 1) return false;
+        for (int i = term.offset; i < term.offset + term.length; i++) {
+            byte b = term.bytes[i];
+            if ((b < '0' || b > '9') && b != '.') return true;
+        }
+        return false;
+    }
+}
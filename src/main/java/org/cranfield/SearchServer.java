@@ -0,0 +1,412 @@
+package org.cranfield;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Headless search mode: a local HTTP endpoint over an existing index.
+ *
+ * One {@link SearcherManager} is shared by all requests and refreshed in the
+ * background, so startup only opens the index (it is built once if missing or
+ * stale) and every request runs on its own virtual thread.
+ *
+ * <pre>
+ *   GET /search?q=boundary+layer&amp;author=...&amp;title=...&amp;k=10   (author/title: comma-separated for any of several)
+ *   GET /stats
+ * </pre>
+ *
+ * Settings come from system properties: {@code cranfield.server.port} (8080),
+ * {@code cranfield.server.analyzer} (EnglishAnalyzer), {@code cranfield.server.similarity}
+ * (2 = BM25), {@code cranfield.server.titleBoost} (2) and {@code cranfield.server.bodyBoost} (1).
+ * When {@code cranfield.server.dropDir} is set the server searches the NRT view of an
+ * {@link IncrementalIndexer} watching that directory, so dropped deltas become
+ * searchable without a restart or rebuild; they are applied to the analyzer's
+ * delta index ({@link AnalyzerIndexCache#ensureDeltaIndex}). The index is opened as configured by
+ * {@link DirectoryOptions} and warmed by {@link IndexWarmer} before the port opens.
+ */
+public class SearchServer implements Closeable {
+
+    private static final String PREFIX = "cranfield.server.";
+    private static final int DEFAULT_K = 10;
+    private static final int MAX_K = 1000;
+    private static final long REFRESH_MS = 1000;
+
+    private final Analyzer analyzer;
+    private final float titleBoost;
+    private final float bodyBoost;
+    private final SearcherManager manager;
+    private final QueryResultCache cache;
+    private final QueryMetrics metrics = new QueryMetrics();
+    private final SnippetGenerator snippets;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    private HttpServer http;
+    private ExecutorService requestExecutor;
+
+    private final List<Closeable> owned = new ArrayList<>();
+    private FilterCache filterCache;
+
+    public SearchServer(Path indexPath, Analyzer analyzer, int simChoice, float titleBoost, float bodyBoost,
+                        QueryResultCache cache) throws IOException {
+        this(indexPath, analyzer, simChoice, titleBoost, bodyBoost, cache, null);
+    }
+
+    /** As above, with author/title filters cached in {@code filterCache} across searcher refreshes. */
+    public SearchServer(Path indexPath, Analyzer analyzer, int simChoice, float titleBoost, float bodyBoost,
+                        QueryResultCache cache, FilterCache filterCache) throws IOException {
+        this(DirectoryOptions.fromSystemProperties().open(indexPath), analyzer, simChoice, titleBoost, bodyBoost,
+                cache, filterCache);
+    }
+
+    /** Serves {@code dir}, which the server then owns and closes after its manager. */
+    private SearchServer(Directory dir, Analyzer analyzer, int simChoice, float titleBoost, float bodyBoost,
+                         QueryResultCache cache, FilterCache filterCache) throws IOException {
+        this(openManager(dir, simChoice, filterCache), analyzer, titleBoost, bodyBoost, cache);
+        this.filterCache = filterCache;
+        owned.add(manager);
+        owned.add(dir);
+    }
+
+    private static SearcherManager openManager(Directory dir, int simChoice, FilterCache filterCache)
+            throws IOException {
+        try {
+            return new SearcherManager(dir, searcherFactory(simChoice, filterCache));
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(dir);
+            throw e;
+        }
+    }
+
+    /** Serves from a caller-owned manager, e.g. the NRT manager of an {@link IncrementalIndexer}. */
+    public SearchServer(SearcherManager manager, Analyzer analyzer, float titleBoost, float bodyBoost,
+                        QueryResultCache cache) {
+        this.manager = manager;
+        this.analyzer = analyzer;
+        this.titleBoost = titleBoost;
+        this.bodyBoost = bodyBoost;
+        this.cache = cache;
+        this.snippets = SnippetGenerator.fromSystemProperties(analyzer, "<b>", "</b>");
+    }
+
+    /** Searchers with the similarity for {@code simChoice}, as in {@link CranFieldParserIndexer#makeSearcherWithSimilarity}. */
+    public static SearcherFactory searcherFactory(int simChoice) {
+        return searcherFactory(simChoice, null);
+    }
+
+    /** Like {@link #searcherFactory(int)}, installing {@code filterCache} (if non-null) on every new searcher. */
+    public static SearcherFactory searcherFactory(int simChoice, FilterCache filterCache) {
+        return new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                IndexSearcher searcher = CranFieldParserIndexer.makeSearcherWithSimilarity(reader, simChoice);
+                return filterCache == null ? searcher : filterCache.apply(searcher);
+            }
+        };
+    }
+
+    /**
+     * Runs the warmer's sample against the current searcher; call before {@link #start}
+     * so the first real requests do not pay for a cold index.
+     */
+    public IndexWarmer.Warmup warm(IndexWarmer warmer) throws Exception {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return warmer.warm(searcher, analyzer, titleBoost, bodyBoost);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    /** Starts listening on the loopback interface; port 0 picks a free port. */
+    public SearchServer start(int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        http.setExecutor(requestExecutor);
+        http.createContext("/search", ex -> handle(ex, this::search));
+        http.createContext("/stats", ex -> handle(ex, params -> stats()));
+        http.start();
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                manager.maybeRefresh();
+            } catch (IOException e) {
+                System.err.println("Searcher refresh failed: " + e.getMessage());
+            }
+        }, REFRESH_MS, REFRESH_MS, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    private String search(Map<String, String> params) throws Exception {
+        String line = params.getOrDefault("q", "").replaceAll("[\\?\\*]", " ").trim();
+        if (line.isEmpty()) throw new BadRequest("missing query parameter 'q'");
+        String authorFilter = params.getOrDefault("author", "").trim();
+        String titleFilter = params.getOrDefault("title", "").trim();
+        int k;
+        try {
+            k = Integer.parseInt(params.getOrDefault("k", String.valueOf(DEFAULT_K)).trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequest("k must be an integer");
+        }
+        if (k < 1 || k > MAX_K) throw new BadRequest("k must be between 1 and " + MAX_K);
+
+        IndexSearcher searcher = manager.acquire();
+        try {
+            long t0 = System.nanoTime();
+            Query query;
+            try {
+                query = CranFieldParserIndexer.withFilters(
+                        CranFieldParserIndexer.makeParser(analyzer, titleBoost, bodyBoost).parse(line),
+                        authorFilter, titleFilter);
+            } catch (ParseException e) {
+                throw new BadRequest("failed to parse query: " + e.getMessage());
+            }
+            long t1 = System.nanoTime();
+            long[] scored = new long[1];
+            QueryResultCache.Search search = () -> {
+                TopKSearch.Result r = TopKSearch.search(searcher, query, k, TopKSearch.threshold(k));
+                scored[0] = r.docsScored();
+                return r.topDocs();
+            };
+            TopDocs topDocs = cache == null ? search.run()
+                    : cache.get(cache.key(searcher, query, "", k), search);
+            long t2 = System.nanoTime();
+
+            DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+            SnippetGenerator.Snippet[] hitSnippets = snippets.snippets(searcher, query, topDocs.scoreDocs);
+            StringBuilder out = new StringBuilder(256 + topDocs.scoreDocs.length * 320);
+            out.append("{\"query\":");
+            appendJson(out, line);
+            out.append(",\"totalHits\":{\"value\":").append(topDocs.totalHits.value())
+                    .append(",\"relation\":\"").append(topDocs.totalHits.relation()).append("\"}");
+            out.append(",\"hits\":[");
+            for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+                ScoreDoc sd = topDocs.scoreDocs[i];
+                if (i > 0) out.append(',');
+                out.append("{\"rank\":").append(i + 1).append(",\"id\":");
+                appendJson(out, ids.get(sd.doc));
+                out.append(",\"score\":").append(String.format(Locale.ROOT, "%.4f", sd.score)).append(",\"title\":");
+                appendJson(out, hitSnippets[i].title());
+                out.append(",\"snippet\":");
+                appendJson(out, hitSnippets[i].body());
+                out.append('}');
+            }
+            long t3 = System.nanoTime();
+            metrics.record(t1 - t0, t2 - t1, t3 - t2);
+            metrics.addWallTime(t3 - t0);
+            metrics.addDocsScored(scored[0]);
+            out.append("],\"docsScored\":").append(scored[0]);
+            out.append(",\"tookMs\":").append(String.format(Locale.ROOT, "%.3f", (t3 - t0) / 1e6)).append('}');
+            return out.toString();
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    private String stats() throws IOException {
+        StringBuilder out = new StringBuilder("{\"docs\":");
+        IndexSearcher searcher = manager.acquire();
+        try {
+            out.append(searcher.getIndexReader().numDocs());
+        } finally {
+            manager.release(searcher);
+        }
+        out.append(",\"latency\":");
+        appendJson(out, metrics.summary());
+        out.append(",\"cache\":");
+        appendJson(out, cache == null ? "disabled" : cache.toString());
+        out.append(",\"filterCache\":");
+        appendJson(out, filterCache == null ? "disabled" : filterCache.toString());
+        out.append(",\"snippetCache\":");
+        appendJson(out, snippets.toString());
+        return out.append('}').toString();
+    }
+
+    private interface Handler {
+        String handle(Map<String, String> params) throws Exception;
+    }
+
+    private static final class BadRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    private static void handle(HttpExchange ex, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                status = 405;
+                body = error("only GET is supported");
+            } else {
+                body = handler.handle(parseQuery(ex.getRequestURI().getRawQuery()));
+            }
+        } catch (BadRequest e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (Exception e) {
+            status = 500;
+            body = error(e.toString());
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.putIfAbsent(name, value);
+        }
+        return params;
+    }
+
+    private static String error(String message) {
+        StringBuilder sb = new StringBuilder("{\"error\":");
+        appendJson(sb, message);
+        return sb.append('}').toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        if (http != null) http.stop(0);
+        if (requestExecutor != null) requestExecutor.shutdown();
+        IOException first = null;
+        for (Closeable c : owned) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                if (first == null) first = e;
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    /** Opens (building only if needed) the index for the configured analyzer and serves it. */
+    public static SearchServer fromSystemProperties() throws Exception {
+        String analyzerName = System.getProperty(PREFIX + "analyzer", "EnglishAnalyzer");
+        int simChoice = Integer.parseInt(System.getProperty(PREFIX + "similarity", "2").trim());
+        float titleBoost = Float.parseFloat(System.getProperty(PREFIX + "titleBoost", "2").trim());
+        float bodyBoost = Float.parseFloat(System.getProperty(PREFIX + "bodyBoost", "1").trim());
+        int port = Integer.parseInt(System.getProperty(PREFIX + "port", "8080").trim());
+        // checked before anything is opened or bound
+        if (simChoice < 1 || simChoice > CranFieldParserIndexer.SIMILARITY_NAMES.length) {
+            throw new IllegalArgumentException(PREFIX + "similarity must be between 1 and "
+                    + CranFieldParserIndexer.SIMILARITY_NAMES.length + ": " + simChoice);
+        }
+        String simName = CranFieldParserIndexer.SIMILARITY_NAMES[simChoice - 1];
+
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        String dropDir = System.getProperty(PREFIX + "dropDir");
+        Path indexPath;
+        try (AnalyzerIndexCache indexes = new AnalyzerIndexCache(CranFieldParserIndexer.ROOT_INDEX_PATH,
+                new File(CranFieldParserIndexer.CRAN_FILE))) {
+            // deltas go to their own copy of the index, never to the cached one
+            indexPath = dropDir == null || dropDir.isBlank() ? indexes.ensureIndex(analyzerName, analyzer)
+                    : indexes.ensureDeltaIndex(analyzerName, analyzer);
+        }
+        long start = System.nanoTime();
+        FilterCache filterCache = FilterCache.fromSystemProperties();
+        SearchServer server;
+        IncrementalIndexer indexer = null;
+        if (dropDir == null || dropDir.isBlank()) {
+            server = new SearchServer(indexPath, analyzer, simChoice, titleBoost, bodyBoost,
+                    QueryResultCache.fromSystemProperties(), filterCache);
+        } else {
+            indexer = new IncrementalIndexer(indexPath, analyzer,
+                    searcherFactory(simChoice, filterCache));
+            server = new SearchServer(indexer.getSearcherManager(), analyzer, titleBoost, bodyBoost,
+                    QueryResultCache.fromSystemProperties());
+            server.filterCache = filterCache;
+            server.owned.add(indexer);
+        }
+        long opened = System.nanoTime();
+        try {
+            // inside the try so a bad drop directory closes the indexer with the server
+            if (indexer != null) indexer.watch(Paths.get(dropDir.trim()));
+            IndexWarmer warmer = IndexWarmer.fromSystemProperties("cran/cran.qry");
+            if (warmer.getSampleSize() > 0) {
+                IndexWarmer.Warmup warmup = server.warm(warmer);
+                LatencyHistogram total = warmup.metrics().get(QueryMetrics.Phase.TOTAL);
+                System.out.printf("Warmed with %d queries in %.1f ms (first query %.3f ms, p50 %.3f ms, max %.3f ms)%n",
+                        total.getCount(), (System.nanoTime() - opened) / 1e6, warmup.firstQueryNanos() / 1e6,
+                        total.getValueAtPercentile(50) / 1e6, total.getMaxNanos() / 1e6);
+            }
+            server.start(port);
+        } catch (Exception e) {
+            server.close();
+            throw e;
+        }
+        System.out.printf("Search server for %s / %s on http://localhost:%d/search (opened in %.1f ms, ready in %.1f ms)%n",
+                analyzerName, simName, server.getPort(), (opened - start) / 1e6, (System.nanoTime() - start) / 1e6);
+        return server;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SearchServer server = fromSystemProperties();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close search server: " + e.getMessage());
+            }
+        }));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,292 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The collection hash-partitioned by {@code id} into S shard indexes, built
+ * with one IndexWriter per shard in parallel and searched scatter-gather: every
+ * query runs on all shards concurrently and the per-shard top k are merged
+ * with {@link TopDocs#merge}.
+ *
+ * Each shard is searched by a {@link ShardSearcher} whose term and collection
+ * statistics are the sums over all shards, so idf, average field length and
+ * collection language models are those of the whole collection and a document
+ * gets the same score it would get in the single index. Only the order of
+ * exact score ties can differ (ties break by shard, then by doc id).
+ */
+public class ShardedIndex implements Closeable {
+
+    private static final CranFieldParserIndexer.CranFieldDocument END_OF_DOCS = new CranFieldParserIndexer.CranFieldDocument();
+
+    private final List<Directory> directories = new ArrayList<>();
+    private final List<DirectoryReader> readers = new ArrayList<>();
+    private final ShardSearcher[] searchers;
+    private final DocIdLookup[] ids;
+    private final ExecutorService executor;
+    private final Map<String, CollectionStatistics> collectionStats = new HashMap<>();
+    private final Map<Term, Optional<TermStatistics>> termStats = new ConcurrentHashMap<>();
+
+    /** Opens every shard with {@code directoryOptions}; each query fans out over its own thread per shard. */
+    public ShardedIndex(List<Path> shardPaths, int simChoice, DirectoryOptions directoryOptions) throws IOException {
+        try {
+            for (Path p : shardPaths) {
+                directories.add(directoryOptions.open(p));
+                readers.add(DirectoryReader.open(directories.get(directories.size() - 1)));
+            }
+        } catch (IOException e) {
+            try {
+                closeShards();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        searchers = new ShardSearcher[readers.size()];
+        ids = new DocIdLookup[readers.size()];
+        for (int i = 0; i < searchers.length; i++) {
+            searchers[i] = new ShardSearcher(readers.get(i));
+            searchers[i].setSimilarity(CranFieldParserIndexer.makeSearcherWithSimilarity(readers.get(i), simChoice)
+                    .getSimilarity());
+            ids[i] = DocIdLookup.forSearcher(searchers[i]);
+        }
+        for (String field : new String[]{"title", "author", "biblio", "body"}) {
+            collectionStats.put(field, sumCollectionStatistics(field));
+        }
+        executor = Executors.newFixedThreadPool(searchers.length);
+    }
+
+    /** Shard a document with this id goes to. */
+    public static int shardFor(String id, int shards) {
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(new BytesRef(id), 0), shards);
+    }
+
+    /**
+     * Indexes {@code docs} into {@code shardPaths.size()} shards at once: the
+     * calling thread routes each document by {@link #shardFor} into a bounded
+     * queue per shard, and each shard's {@link CranFieldParserIndexer#buildIndex}
+     * runs on its own thread. Returns the stats of every shard.
+     */
+    public static List<CranFieldParserIndexer.IndexStats> build(List<Path> shardPaths,
+                                                                Iterator<CranFieldParserIndexer.CranFieldDocument> docs,
+                                                                Analyzer analyzer, Map<String, String> commitData,
+                                                                IndexingOptions options) throws Exception {
+        int shards = shardPaths.size();
+        List<BlockingQueue<CranFieldParserIndexer.CranFieldDocument>> queues = new ArrayList<>(shards);
+        List<Future<CranFieldParserIndexer.IndexStats>> builders = new ArrayList<>(shards);
+        ExecutorService pool = Executors.newFixedThreadPool(shards);
+        try {
+            for (int s = 0; s < shards; s++) {
+                BlockingQueue<CranFieldParserIndexer.CranFieldDocument> queue = new ArrayBlockingQueue<>(256);
+                queues.add(queue);
+                Map<String, String> shardCommitData = new HashMap<>(commitData);
+                shardCommitData.put(AnalyzerIndexCache.SHARD_KEY, s + "/" + shards);
+                Path path = shardPaths.get(s);
+                builders.add(pool.submit(() -> CranFieldParserIndexer.buildIndex(path, drain(queue), analyzer,
+                        shardCommitData, options)));
+            }
+            while (docs.hasNext()) {
+                CranFieldParserIndexer.CranFieldDocument cd = docs.next();
+                BlockingQueue<CranFieldParserIndexer.CranFieldDocument> queue = queues.get(shardFor(cd.id, shards));
+                // stop feeding if a builder died, otherwise put() could block forever
+                while (!queue.offer(cd, 100, TimeUnit.MILLISECONDS)) {
+                    for (Future<?> b : builders) {
+                        if (b.isDone()) CranFieldParserIndexer.await(b);
+                    }
+                }
+            }
+            for (BlockingQueue<CranFieldParserIndexer.CranFieldDocument> queue : queues) queue.put(END_OF_DOCS);
+            List<CranFieldParserIndexer.IndexStats> stats = new ArrayList<>(shards);
+            for (Future<CranFieldParserIndexer.IndexStats> b : builders) stats.add(CranFieldParserIndexer.await(b));
+            return stats;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Iterator<CranFieldParserIndexer.CranFieldDocument> drain(
+            BlockingQueue<CranFieldParserIndexer.CranFieldDocument> queue) {
+        return new Iterator<>() {
+            private CranFieldParserIndexer.CranFieldDocument next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for documents", e);
+                    }
+                }
+                return next != END_OF_DOCS;
+            }
+
+            @Override
+            public CranFieldParserIndexer.CranFieldDocument next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                CranFieldParserIndexer.CranFieldDocument cd = next;
+                next = null;
+                return cd;
+            }
+        };
+    }
+
+    /**
+     * A shard's searcher, answering statistics for the whole collection so its
+     * scores can be merged with those of the other shards.
+     */
+    private final class ShardSearcher extends IndexSearcher {
+        ShardSearcher(IndexReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) {
+            return globalTermStatistics(term);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            CollectionStatistics stats = collectionStats.get(field);
+            return stats != null ? stats : sumCollectionStatistics(field);
+        }
+    }
+
+    private TermStatistics globalTermStatistics(Term term) {
+        return termStats.computeIfAbsent(term, t -> {
+            long docFreq = 0, totalTermFreq = 0;
+            try {
+                for (DirectoryReader r : readers) {
+                    docFreq += r.docFreq(t);
+                    totalTermFreq += r.totalTermFreq(t);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return docFreq == 0 ? Optional.empty() : Optional.of(new TermStatistics(t.bytes(), docFreq, totalTermFreq));
+        }).orElse(null);
+    }
+
+    private CollectionStatistics sumCollectionStatistics(String field) throws IOException {
+        long maxDoc = 0, docCount = 0, sumTotalTermFreq = 0, sumDocFreq = 0;
+        for (DirectoryReader r : readers) {
+            maxDoc += r.maxDoc();
+            CollectionStatistics s = new IndexSearcher(r).collectionStatistics(field);
+            if (s == null) continue;
+            docCount += s.docCount();
+            sumTotalTermFreq += s.sumTotalTermFreq();
+            sumDocFreq += s.sumDocFreq();
+        }
+        return docCount == 0 ? null : new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+    }
+
+    public int getShardCount() {
+        return searchers.length;
+    }
+
+    public int numDocs() {
+        int n = 0;
+        for (DirectoryReader r : readers) n += r.numDocs();
+        return n;
+    }
+
+    /**
+     * Searches every shard concurrently for its top k and merges them. The
+     * merged hits carry their shard in {@link ScoreDoc#shardIndex}; docs scored
+     * is the sum over shards.
+     */
+    public TopKSearch.Result search(Query query, int topK, int totalHitsThreshold) throws Exception {
+        List<Future<TopKSearch.Result>> perShard = new ArrayList<>(searchers.length);
+        for (ShardSearcher searcher : searchers) {
+            perShard.add(executor.submit(() -> TopKSearch.search(searcher, query, topK, totalHitsThreshold)));
+        }
+        TopDocs[] hits = new TopDocs[searchers.length];
+        long scored = 0;
+        for (int i = 0; i < hits.length; i++) {
+            TopKSearch.Result r;
+            try {
+                r = perShard.get(i).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            for (ScoreDoc sd : r.topDocs().scoreDocs) sd.shardIndex = i;
+            hits[i] = r.topDocs();
+            scored += r.docsScored();
+        }
+        return new TopKSearch.Result(TopDocs.merge(topK, hits), scored);
+    }
+
+    /** Cranfield id of a merged hit. */
+    public String id(ScoreDoc hit) throws IOException {
+        return ids[hit.shardIndex].get(hit.doc);
+    }
+
+    /**
+     * Runs every query of the file through {@link #search} and writes a TREC run,
+     * like {@link CranFieldParserIndexer#generateTrecResults}; queries run one at a
+     * time, each fanned out over the shards.
+     */
+    public List<TrecEvaluator.QueryRun> generateTrecResults(Analyzer analyzer, String queriesFile, String outputFile,
+                                                            int topK, float titleBoost, float bodyBoost,
+                                                            QueryMetrics metrics) throws Exception {
+        int threshold = TopKSearch.threshold(topK);
+        long start = System.nanoTime();
+        List<QueryCompiler.CompiledQuery> queries = QueryCompiler.compile(queriesFile, analyzer, titleBoost, bodyBoost);
+        long compileNanos = queries.isEmpty() ? 0 : (System.nanoTime() - start) / queries.size();
+        List<TrecEvaluator.QueryRun> run = new ArrayList<>(queries.size());
+        for (QueryCompiler.CompiledQuery q : queries) {
+            long t1 = System.nanoTime();
+            TopKSearch.Result r = search(q.query(), topK, threshold);
+            long t2 = System.nanoTime();
+            ScoreDoc[] hits = r.topDocs().scoreDocs;
+            String[] docIds = new String[hits.length];
+            double[] scores = new double[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                docIds[i] = id(hits[i]);
+                scores[i] = hits[i].score;
+            }
+            if (metrics != null) {
+                metrics.record(compileNanos, t2 - t1, System.nanoTime() - t2);
+                metrics.addDocsScored(r.docsScored());
+            }
+            run.add(new TrecEvaluator.QueryRun(q.qid(), docIds, scores));
+        }
+        if (metrics != null) metrics.addWallTime(System.nanoTime() - start);
+
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)))) {
+            for (TrecEvaluator.QueryRun q : run) {
+                for (int i = 0; i < q.size(); i++) {
+                    pw.printf("%s Q0 %s %d %.6f %s\n", q.qid(), q.docIds()[i], i + 1, q.scores()[i],
+                            CranFieldParserIndexer.RUN_ID);
+                }
+            }
+        }
+        return run;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) executor.shutdownNow();
+        closeShards();
+    }
+
+    /** Closes the shard readers, then their directories; private so the constructor can clean up with it. */
+    private void closeShards() throws IOException {
+        List<Closeable> all = new ArrayList<>(readers);
+        all.addAll(directories);
+        IOUtils.close(all);
+    }
+}
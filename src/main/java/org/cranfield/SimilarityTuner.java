@@ -0,0 +1,522 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scores every cran.qry query for many BM25 (k1, b), LM Dirichlet mu or
+ * Jelinek-Mercer lambda settings without going back through Lucene.
+ *
+ * The index is read once: the postings of every query term in title and body
+ * go into two flat int arrays (docs and freqs, one slice per term and field),
+ * field lengths are kept as the one-byte norms Lucene stores, and term and
+ * collection statistics as longs. A parameter point then only needs three
+ * 256-entry tables (one value per possible norm) and a walk over the postings,
+ * with per-thread accumulators reused for every query. Scores follow the
+ * formulas of BM25Similarity, LMDirichletSimilarity and
+ * LMJelinekMercerSimilarity on the same queries QueryCompiler builds, and each
+ * point's run is evaluated in memory with trec_eval's ranking rules, so MAP
+ * and P@10 match {@link TrecEvaluator} on the equivalent Lucene run.
+ */
+public final class SimilarityTuner {
+
+    public enum Model { BM25, LMDirichlet, LMJelinekMercer }
+
+    /** One parameter setting: (k1, b) for BM25, (mu, -) for Dirichlet, (lambda, -) for Jelinek-Mercer. */
+    public record Point(Model model, float p1, float p2) {
+        @Override
+        public String toString() {
+            return switch (model) {
+                case BM25 -> String.format(Locale.ROOT, "BM25(k1=%.2f, b=%.3f)", p1, p2);
+                case LMDirichlet -> String.format(Locale.ROOT, "LMDirichlet(mu=%.0f)", p1);
+                case LMJelinekMercer -> String.format(Locale.ROOT, "LMJelinekMercer(lambda=%.3f)", p1);
+            };
+        }
+    }
+
+    public record PointResult(Point point, double map, double p10) {}
+
+    private static final String[] FIELDS = {"title", "body"};
+    private static final float[] LENGTH_TABLE = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) LENGTH_TABLE[i] = SmallFloat.byte4ToInt((byte) i);
+    }
+
+    private final int maxDoc;
+    private final int topK;
+    private final float[] fieldBoosts;
+    private final byte[][] norms;                 // [field][doc]
+    private final long[] docCount;                // [field]
+    private final long[] sumTotalTermFreq;        // [field]
+
+    // one postings list per (field, term) used by any query
+    private int lists;
+    private int[] listField = new int[16];
+    private long[] listDocFreq = new long[16];
+    private long[] listTotalTermFreq = new long[16];
+    private int[] listStart = new int[17];
+    private int[] postingDocs = new int[1024];
+    private int[] postingFreqs = new int[1024];
+
+    // per query: its clauses (postings list and number of times the term occurs)
+    private final String[] qids;
+    private final int[][] queryLists;
+    private final int[][] queryCounts;
+    private final FixedBitSet[] relevant;
+    private final int[] numRelevant;
+    private final boolean[] judged;
+    private final int[] docnoRank;
+
+    /**
+     * Loads postings, norms and statistics for the queries' terms from
+     * {@code reader}, which must be an index built by buildIndex with the same analyzer.
+     */
+    public SimilarityTuner(IndexReader reader, Map<String, List<String>> queryTerms,
+                           Map<String, Map<String, Integer>> qrels, float titleBoost, float bodyBoost, int topK)
+            throws IOException {
+        this.maxDoc = reader.maxDoc();
+        this.topK = topK;
+        this.fieldBoosts = new float[]{titleBoost, bodyBoost};
+        IndexSearcher searcher = new IndexSearcher(reader);
+        norms = new byte[FIELDS.length][maxDoc];
+        docCount = new long[FIELDS.length];
+        sumTotalTermFreq = new long[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            CollectionStatistics stats = searcher.collectionStatistics(FIELDS[f]);
+            docCount[f] = stats == null ? 0 : stats.docCount();
+            sumTotalTermFreq[f] = stats == null ? 0 : stats.sumTotalTermFreq();
+            for (LeafReaderContext leaf : reader.leaves()) {
+                NumericDocValues nv = leaf.reader().getNormValues(FIELDS[f]);
+                if (nv == null) {
+                    // field indexed without norms: Lucene's scorers then use norm 1 for every document
+                    Arrays.fill(norms[f], leaf.docBase, leaf.docBase + leaf.reader().maxDoc(), (byte) 1);
+                    continue;
+                }
+                for (int doc = nv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = nv.nextDoc()) {
+                    norms[f][leaf.docBase + doc] = (byte) nv.longValue();
+                }
+            }
+        }
+
+        Map<String, Integer> listIds = new HashMap<>();
+        qids = queryTerms.keySet().toArray(new String[0]);
+        queryLists = new int[qids.length][];
+        queryCounts = new int[qids.length][];
+        for (int q = 0; q < qids.length; q++) {
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (String t : queryTerms.get(qids[q])) counts.merge(t, 1, Integer::sum);
+            int[] ls = new int[counts.size() * FIELDS.length];
+            int[] cs = new int[ls.length];
+            int n = 0;
+            for (Map.Entry<String, Integer> e : counts.entrySet()) {
+                for (int f = 0; f < FIELDS.length; f++) {
+                    String key = f + ":" + e.getKey();
+                    Integer id = listIds.get(key);
+                    if (id == null) {
+                        id = loadPostings(reader, f, e.getKey());
+                        listIds.put(key, id);
+                    }
+                    if (listDocFreq[id] == 0) continue;
+                    ls[n] = id;
+                    cs[n++] = e.getValue();
+                }
+            }
+            queryLists[q] = Arrays.copyOf(ls, n);
+            queryCounts[q] = Arrays.copyOf(cs, n);
+        }
+
+        // docnos for trec_eval's tie break (docno descending) as int ranks
+        String[] docnos = new String[maxDoc];
+        DocIdLookup ids = DocIdLookup.forSearcher(searcher);
+        Map<String, Integer> docByNo = new HashMap<>();
+        for (int doc = 0; doc < maxDoc; doc++) {
+            docnos[doc] = ids.get(doc);
+            docByNo.put(docnos[doc], doc);
+        }
+        Integer[] byNo = new Integer[maxDoc];
+        for (int i = 0; i < maxDoc; i++) byNo[i] = i;
+        Arrays.sort(byNo, Comparator.comparing(d -> docnos[d]));
+        docnoRank = new int[maxDoc];
+        for (int i = 0; i < maxDoc; i++) docnoRank[byNo[i]] = i;
+
+        relevant = new FixedBitSet[qids.length];
+        numRelevant = new int[qids.length];
+        judged = new boolean[qids.length];
+        for (int q = 0; q < qids.length; q++) {
+            relevant[q] = new FixedBitSet(maxDoc);
+            Map<String, Integer> rels = qrels.get(qids[q]);
+            if (rels == null) continue;
+            judged[q] = true;
+            for (Map.Entry<String, Integer> e : rels.entrySet()) {
+                if (e.getValue() < 1) continue;
+                numRelevant[q]++;
+                Integer doc = docByNo.get(e.getKey());
+                if (doc != null) relevant[q].set(doc);
+            }
+        }
+    }
+
+    private int loadPostings(IndexReader reader, int field, String term) throws IOException {
+        int id = lists++;
+        if (id == listField.length) {
+            int size = ArrayUtil.oversize(id + 1, Long.BYTES);
+            listField = ArrayUtil.growExact(listField, size);
+            listDocFreq = ArrayUtil.growExact(listDocFreq, size);
+            listTotalTermFreq = ArrayUtil.growExact(listTotalTermFreq, size);
+            listStart = ArrayUtil.growExact(listStart, size + 1);
+        }
+        listField[id] = field;
+        Term t = new Term(FIELDS[field], term);
+        listDocFreq[id] = reader.docFreq(t);
+        listTotalTermFreq[id] = reader.totalTermFreq(t);
+        int n = listStart[id];
+        BytesRef bytes = new BytesRef(term);
+        for (LeafReaderContext leaf : reader.leaves()) {
+            Terms terms = leaf.reader().terms(FIELDS[field]);
+            if (terms == null) continue;
+            TermsEnum te = terms.iterator();
+            if (!te.seekExact(bytes)) continue;
+            PostingsEnum pe = te.postings(null, PostingsEnum.FREQS);
+            Bits live = leaf.reader().getLiveDocs();
+            for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+                if (live != null && !live.get(doc)) continue;
+                if (n == postingDocs.length) {
+                    postingDocs = ArrayUtil.grow(postingDocs, n + 1);
+                    postingFreqs = ArrayUtil.growExact(postingFreqs, postingDocs.length);
+                }
+                postingDocs[n] = leaf.docBase + doc;
+                postingFreqs[n++] = pe.freq();
+            }
+        }
+        listStart[id + 1] = n;
+        return id;
+    }
+
+    public int postingsLoaded() {
+        return listStart[lists];
+    }
+
+    /** Per-thread scratch space, reused for every query and point. */
+    private final class Workspace {
+        final double[] acc = new double[maxDoc];
+        final int[] stamp = new int[maxDoc];
+        final int[] touched = new int[maxDoc];
+        final int[] heapDocs = new int[topK];
+        final float[] heapScores = new float[topK];
+        final int[] relRanks = new int[topK];
+        final float[][] lengthTables = new float[FIELDS.length][256];
+        int epoch;
+    }
+
+    /** Evaluates every point on {@code threads} threads; results are in the order of {@code points}. */
+    public List<PointResult> evaluate(List<Point> points, int threads) throws Exception {
+        PointResult[] results = new PointResult[points.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                futures.add(pool.submit(() -> {
+                    Workspace ws = new Workspace();
+                    for (int i = first; i < results.length; i += threads) results[i] = evaluate(points.get(i), ws);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return Arrays.asList(results);
+    }
+
+    private PointResult evaluate(Point point, Workspace ws) {
+        // per-norm tables: BM25 1/(k1 (1 - b + b dl/avgdl)), Dirichlet log(mu/(dl+mu)), Jelinek-Mercer 1/dl
+        for (int f = 0; f < FIELDS.length; f++) {
+            float avgdl = docCount[f] == 0 ? 1 : (float) (sumTotalTermFreq[f] / (double) docCount[f]);
+            for (int i = 0; i < 256; i++) {
+                ws.lengthTables[f][i] = switch (point.model()) {
+                    case BM25 -> 1f / (point.p1() * ((1 - point.p2()) + point.p2() * LENGTH_TABLE[i] / avgdl));
+                    case LMDirichlet -> (float) Math.log(point.p1() / (LENGTH_TABLE[i] + point.p1()));
+                    case LMJelinekMercer -> 1f / LENGTH_TABLE[i];
+                };
+            }
+        }
+        double sumAp = 0, sumP10 = 0;
+        int evaluated = 0;
+        for (int q = 0; q < qids.length; q++) {
+            if (!judged[q]) continue;
+            int relHits = relevantRanks(q, score(point, q, ws), ws);
+            evaluated++;
+            sumAp += averagePrecision(q, relHits, ws);
+            sumP10 += precisionAt10(relHits, ws);
+        }
+        return new PointResult(point, evaluated == 0 ? 0 : sumAp / evaluated, evaluated == 0 ? 0 : sumP10 / evaluated);
+    }
+
+    /** Scores one query into ws.acc and leaves its top k in ws.heapDocs/heapScores; returns how many. */
+    private int score(Point point, int q, Workspace ws) {
+        int epoch = ++ws.epoch;
+        int touched = 0;
+        int[] ls = queryLists[q], cs = queryCounts[q];
+        for (int c = 0; c < ls.length; c++) {
+            int list = ls[c], f = listField[list];
+            float boost = fieldBoosts[f];
+            // clause constants, as the similarity computes them once per term
+            float weight = 0;
+            double k = 0;
+            switch (point.model()) {
+                case BM25 -> weight = boost * (float) Math.log(1 + (docCount[f] - listDocFreq[list] + 0.5D)
+                        / (listDocFreq[list] + 0.5D));
+                case LMDirichlet -> k = 1.0 / (point.p1() * collectionProbability(list, f));
+                case LMJelinekMercer -> k = (1 - point.p1()) / (point.p1() * collectionProbability(list, f));
+            }
+            touched = switch (point.model()) {
+                case BM25 -> scoreBm25(list, weight, cs[c], ws.lengthTables[f], norms[f], ws, epoch, touched);
+                case LMDirichlet -> scoreDirichlet(list, boost, k, cs[c], ws.lengthTables[f], norms[f], ws, epoch, touched);
+                case LMJelinekMercer -> scoreJelinekMercer(list, boost, k, cs[c], ws.lengthTables[f], norms[f], ws,
+                        epoch, touched);
+            };
+        }
+        return selectTopK(touched, ws);
+    }
+
+    // one loop per model so the per-posting work has no branches on the model
+
+    private int scoreBm25(int list, float weight, int count, float[] normInverse, byte[] fieldNorms, Workspace ws,
+                          int epoch, int touched) {
+        for (int p = listStart[list], end = listStart[list + 1]; p < end; p++) {
+            int doc = postingDocs[p];
+            float s = weight - weight / (1f + postingFreqs[p] * normInverse[fieldNorms[doc] & 0xFF]);
+            touched = add(ws, doc, (double) s * count, epoch, touched);
+        }
+        return touched;
+    }
+
+    private int scoreDirichlet(int list, float boost, double k, int count, float[] lengthTerm, byte[] fieldNorms,
+                               Workspace ws, int epoch, int touched) {
+        for (int p = listStart[list], end = listStart[list + 1]; p < end; p++) {
+            int doc = postingDocs[p];
+            float s = (float) Math.max(0.0, boost * (Math.log(1 + postingFreqs[p] * k) + lengthTerm[fieldNorms[doc] & 0xFF]));
+            touched = add(ws, doc, (double) s * count, epoch, touched);
+        }
+        return touched;
+    }
+
+    private int scoreJelinekMercer(int list, float boost, double k, int count, float[] inverseLength, byte[] fieldNorms,
+                                   Workspace ws, int epoch, int touched) {
+        for (int p = listStart[list], end = listStart[list + 1]; p < end; p++) {
+            int doc = postingDocs[p];
+            float s = (float) (boost * Math.log(1 + k * postingFreqs[p] * inverseLength[fieldNorms[doc] & 0xFF]));
+            touched = add(ws, doc, (double) s * count, epoch, touched);
+        }
+        return touched;
+    }
+
+    private static int add(Workspace ws, int doc, double score, int epoch, int touched) {
+        if (ws.stamp[doc] != epoch) {
+            ws.stamp[doc] = epoch;
+            ws.acc[doc] = score;
+            ws.touched[touched++] = doc;
+        } else {
+            ws.acc[doc] += score;
+        }
+        return touched;
+    }
+
+    private double collectionProbability(int list, int field) {
+        return (listTotalTermFreq[list] + 1D) / (sumTotalTermFreq[field] + 1D);
+    }
+
+    /** Min-heap of the best k (score descending, lower doc id first on ties, as TopScoreDocCollector keeps them). */
+    private int selectTopK(int touched, Workspace ws) {
+        int size = 0;
+        int[] hd = ws.heapDocs;
+        float[] hs = ws.heapScores;
+        for (int i = 0; i < touched; i++) {
+            int doc = ws.touched[i];
+            float score = (float) ws.acc[doc];
+            if (size < topK) {
+                hd[size] = doc;
+                hs[size] = score;
+                siftUp(hd, hs, size++);
+            } else if (worse(hs[0], hd[0], score, doc)) {
+                hd[0] = doc;
+                hs[0] = score;
+                siftDown(hd, hs, size);
+            }
+        }
+        return size;
+    }
+
+    private static boolean worse(float s1, int d1, float s2, int d2) {
+        return s1 < s2 || (s1 == s2 && d1 > d2);
+    }
+
+    private static void siftUp(int[] hd, float[] hs, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(hs[i], hd[i], hs[parent], hd[parent])) break;
+            swap(hd, hs, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] hd, float[] hs, int size) {
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && worse(hs[l], hd[l], hs[min], hd[min])) min = l;
+            if (r < size && worse(hs[r], hd[r], hs[min], hd[min])) min = r;
+            if (min == i) return;
+            swap(hd, hs, i, min);
+            i = min;
+        }
+    }
+
+    private static void swap(int[] hd, float[] hs, int i, int j) {
+        int d = hd[i];
+        hd[i] = hd[j];
+        hd[j] = d;
+        float s = hs[i];
+        hs[i] = hs[j];
+        hs[j] = s;
+    }
+
+    /** trec_eval rank of the i-th hit: scores rounded to the run file's 6 decimals, ties by docno descending. */
+    private int rank(int i, int hits, Workspace ws) {
+        long key = Math.round(ws.heapScores[i] * 1e6);
+        int rank = 1;
+        for (int j = 0; j < hits; j++) {
+            long other = Math.round(ws.heapScores[j] * 1e6);
+            if (other > key || (other == key && docnoRank[ws.heapDocs[j]] > docnoRank[ws.heapDocs[i]])) rank++;
+        }
+        return rank;
+    }
+
+    /** Puts the sorted trec_eval ranks of the relevant hits into ws.relRanks and returns how many there are. */
+    private int relevantRanks(int q, int hits, Workspace ws) {
+        int n = 0;
+        for (int i = 0; i < hits; i++) {
+            if (relevant[q].get(ws.heapDocs[i])) ws.relRanks[n++] = rank(i, hits, ws);
+        }
+        Arrays.sort(ws.relRanks, 0, n);
+        return n;
+    }
+
+    private double averagePrecision(int q, int relHits, Workspace ws) {
+        if (numRelevant[q] == 0) return 0;
+        double sum = 0;
+        for (int i = 0; i < relHits; i++) sum += (double) (i + 1) / ws.relRanks[i];
+        return sum / numRelevant[q];
+    }
+
+    private static double precisionAt10(int relHits, Workspace ws) {
+        int inTop10 = 0;
+        for (int i = 0; i < relHits && ws.relRanks[i] <= 10; i++) inTop10++;
+        return inTop10 / 10.0;
+    }
+
+    /** k1 x b grid, mu values and lambda values, each "from:to:step". */
+    public static List<Point> grid(String k1, String b, String mu, String lambda) {
+        List<Point> points = new ArrayList<>();
+        for (float k : range(k1)) for (float bb : range(b)) points.add(new Point(Model.BM25, k, bb));
+        for (float m : range(mu)) points.add(new Point(Model.LMDirichlet, m, 0));
+        for (float l : range(lambda)) points.add(new Point(Model.LMJelinekMercer, l, 0));
+        return points;
+    }
+
+    private static float[] range(String spec) {
+        if (spec == null || spec.isBlank()) return new float[0];
+        String[] p = spec.split(":");
+        double from = Double.parseDouble(p[0]), to = Double.parseDouble(p[1]), step = Double.parseDouble(p[2]);
+        int n = (int) Math.floor((to - from) / step + 1e-9) + 1;
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++) values[i] = (float) (from + i * step);
+        return values;
+    }
+
+    /**
+     * Sweeps BM25 k1 x b, Dirichlet mu and Jelinek-Mercer lambda for one analyzer,
+     * writes every point to output/tuning/&lt;Analyzer&gt;_t2_c1.csv and prints the
+     * best setting per model next to the current settings of makeSearcherWithSimilarity.
+     * Those are also run through Lucene to check the two agree; pass the best ones
+     * back with {@code -Dcranfield.bm25.k1}, {@code .b}, {@code -Dcranfield.lm.mu} or
+     * {@code -Dcranfield.lm.lambda}.
+     *
+     * Usage: SimilarityTuner &lt;Analyzer&gt; [k1 from:to:step] [b ...] [mu ...] [lambda ...]
+     * (defaults 0.1:3.0:0.05, 0:1:0.025, 50:5000:50, 0.05:0.95:0.025)
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SimilarityTuner <Analyzer> [k1 from:to:step] [b] [mu] [lambda]");
+            return;
+        }
+        String analyzerName = args[0];
+        List<Point> points = grid(args.length > 1 ? args[1] : "0.1:3.0:0.05", args.length > 2 ? args[2] : "0:1:0.025",
+                args.length > 3 ? args[3] : "50:5000:50", args.length > 4 ? args[4] : "0.05:0.95:0.025");
+        Analyzer analyzer = CranFieldParserIndexer.analyzerByName(analyzerName);
+        Map<String, Map<String, Integer>> qrels = CranFieldParserIndexer.loadQrels("cran/cranqrel");
+        int threads = SweepExecutor.defaultParallelism();
+
+        try (AnalyzerIndexCache cache = new AnalyzerIndexCache("index/", new File("cran/cran.all.1400"))) {
+            DirectoryReader reader = cache.getReader(analyzerName, analyzer);
+            long t0 = System.nanoTime();
+            SimilarityTuner tuner = new SimilarityTuner(reader, QueryCompiler.tokens("cran/cran.qry", analyzer), qrels,
+                    2.0f, 1.0f, 100);
+            long t1 = System.nanoTime();
+            System.out.printf("Loaded %d postings in %.1f ms%n", tuner.postingsLoaded(), (t1 - t0) / 1e6);
+            List<PointResult> results = tuner.evaluate(points, threads);
+            long t2 = System.nanoTime();
+            System.out.printf("Evaluated %d points on %d thread(s) in %.2f s (%.2f ms/point)%n", points.size(), threads,
+                    (t2 - t1) / 1e9, (t2 - t1) / 1e6 / points.size());
+
+            String csv = "output/tuning/" + analyzerName + "_t2_c1.csv";
+            new File(csv).getAbsoluteFile().getParentFile().mkdirs();
+            try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(csv)))) {
+                pw.println("Model,Param1,Param2,MAP,P_10");
+                for (PointResult r : results) {
+                    pw.printf(Locale.ROOT, "%s,%.4f,%.4f,%.4f,%.4f%n", r.point().model(), r.point().p1(), r.point().p2(),
+                            r.map(), r.p10());
+                }
+            }
+            System.out.println("Tuning grid written to: " + csv);
+
+            TrecEvaluator evaluator = new TrecEvaluator(qrels);
+            List<Point> defaults = List.of(
+                    new Point(Model.BM25, CranFieldParserIndexer.BM25_K1, CranFieldParserIndexer.BM25_B),
+                    new Point(Model.LMDirichlet, CranFieldParserIndexer.LM_MU, 0),
+                    new Point(Model.LMJelinekMercer, CranFieldParserIndexer.LM_LAMBDA, 0));
+            List<PointResult> atDefaults = tuner.evaluate(defaults, 1);
+            for (int m = 0; m < defaults.size(); m++) {
+                Model model = defaults.get(m).model();
+                PointResult best = results.stream().filter(r -> r.point().model() == model)
+                        .max(Comparator.comparingDouble(PointResult::map)).orElse(null);
+                List<TrecEvaluator.QueryRun> run = CranFieldParserIndexer.generateTrecResults(
+                        CranFieldParserIndexer.makeSearcherWithSimilarity(reader, m + 2), analyzer, "cran/cran.qry",
+                        "output/tuning/" + analyzerName + "_" + model + "_default_results.txt", 100, 2.0f, 1.0f);
+                System.out.printf("%-16s default %-30s map %.4f (Lucene %.4f) | best %-30s map %.4f P_10 %.4f%n",
+                        model, defaults.get(m), atDefaults.get(m).map(), evaluator.evaluate(model.name(), run).get("map"),
+                        best == null ? "-" : best.point(), best == null ? 0 : best.map(), best == null ? 0 : best.p10());
+            }
+        }
+    }
+}
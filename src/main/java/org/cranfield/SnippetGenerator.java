@@ -0,0 +1,176 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+
+import java.io.*;
+import java.text.BreakIterator;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Query-aware title and body snippets for search hits.
+ *
+ * A {@link UnifiedHighlighter} reads match offsets straight from the title and
+ * body postings (the default {@link IndexLayout} indexes both with offsets), so
+ * the stored text is cut into passages around the matches without running the
+ * analyzer again. Layouts without offsets fall back to re-analyzing the stored
+ * text, and fields that are not stored give empty snippets.
+ * Per hit the work is bounded: at most {@code maxLength} characters of each
+ * field are loaded and scanned, and one passage of about {@code length}
+ * characters is returned, the best-scoring one or the opening of the field
+ * when nothing matched.
+ *
+ * Snippets can be cached by segment core, segment doc id and query, so a
+ * reopened reader keeps the snippets of the segments it still shares and those
+ * of closed segments are dropped.
+ *
+ * Settings come from system properties, prefix {@code cranfield.snippets.}:
+ * {@code length} (200), {@code maxLength} (10000) and {@code cacheSize}
+ * (4096 snippets, 0 disables the cache).
+ */
+public class SnippetGenerator {
+
+    private static final String PREFIX = "cranfield.snippets.";
+    static final String[] FIELDS = {"title", "body"};
+
+    /** Title and body of one hit with the matched terms marked; either may be empty. */
+    public record Snippet(String title, String body) {}
+
+    private record Key(IndexReader.CacheKey coreKey, int leafDoc, Query query) {}
+
+    private final Analyzer analyzer;
+    private final int length;
+    private final int maxLength;
+    private final int cacheSize;
+    private final String preTag, postTag;
+    private final LinkedHashMap<Key, Snippet> cache;
+    private final Set<IndexReader.CacheKey> trackedCores = new HashSet<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** {@code analyzer} should be the one the index was built with; it only runs for fields without offsets. */
+    public SnippetGenerator(Analyzer analyzer, int length, int maxLength, int cacheSize, String preTag, String postTag) {
+        if (length < 1 || maxLength < 1) throw new IllegalArgumentException("length and maxLength must be >= 1");
+        this.analyzer = analyzer;
+        this.length = length;
+        this.maxLength = maxLength;
+        this.cacheSize = cacheSize;
+        this.preTag = preTag;
+        this.postTag = postTag;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Snippet> eldest) {
+                return size() > SnippetGenerator.this.cacheSize;
+            }
+        };
+    }
+
+    /** Generator from the {@code cranfield.snippets.*} system properties, marking matches with the given tags. */
+    public static SnippetGenerator fromSystemProperties(Analyzer analyzer, String preTag, String postTag) {
+        return new SnippetGenerator(analyzer, Integer.parseInt(System.getProperty(PREFIX + "length", "200").trim()),
+                Integer.parseInt(System.getProperty(PREFIX + "maxLength", "10000").trim()),
+                Integer.parseInt(System.getProperty(PREFIX + "cacheSize", "4096").trim()), preTag, postTag);
+    }
+
+    /** Snippets for {@code hits}, in the same order; {@code query} should be the query that found them. */
+    public Snippet[] snippets(IndexSearcher searcher, Query query, ScoreDoc[] hits) throws IOException {
+        Snippet[] out = new Snippet[hits.length];
+        Key[] keys = new Key[hits.length];
+        int missing = 0;
+        if (cacheSize > 0) {
+            List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            for (int i = 0; i < hits.length; i++) {
+                LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits[i].doc, leaves));
+                IndexReader.CacheHelper helper = leaf.reader().getCoreCacheHelper();
+                if (helper != null) {
+                    keys[i] = new Key(helper.getKey(), hits[i].doc - leaf.docBase, query);
+                    synchronized (this) {
+                        if (trackedCores.add(helper.getKey())) helper.addClosedListener(this::dropCore);
+                        out[i] = cache.get(keys[i]);
+                    }
+                }
+                if (out[i] == null) missing++;
+            }
+            this.hits.add(hits.length - missing);
+            misses.add(missing);
+        } else {
+            missing = hits.length;
+        }
+        if (missing == 0) return out;
+
+        // one highlighter call for all misses; it visits their stored fields in doc id order
+        int[] docs = new int[missing];
+        int[] slots = new int[missing];
+        for (int i = 0, m = 0; i < hits.length; i++) {
+            if (out[i] == null) {
+                slots[m] = i;
+                docs[m++] = hits[i].doc;
+            }
+        }
+        int[] passages = new int[FIELDS.length];
+        Arrays.fill(passages, 1);
+        Map<String, String[]> highlights = highlighter(searcher).highlightFields(FIELDS, query, docs, passages);
+        String[] titles = highlights.get("title"), bodies = highlights.get("body");
+        for (int m = 0; m < missing; m++) {
+            int i = slots[m];
+            out[i] = new Snippet(Objects.requireNonNullElse(titles[m], "").strip(),
+                    Objects.requireNonNullElse(bodies[m], "").strip());
+            if (keys[i] != null) {
+                synchronized (this) {
+                    cache.put(keys[i], out[i]);
+                }
+            }
+        }
+        return out;
+    }
+
+    private UnifiedHighlighter highlighter(IndexSearcher searcher) {
+        UnifiedHighlighter.Builder builder = UnifiedHighlighter.builder(searcher, analyzer)
+                .withMaxLength(maxLength)
+                // term-at-a-time offsets from postings; Weight#matches per hit cost ~2.5x more on cran.qry
+                .withWeightMatches(false)
+                // Cranfield text is lower case, so sentence boundaries are rare; cut at words around the first match
+                .withBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(
+                        BreakIterator.getWordInstance(Locale.ROOT), length, 0.5f))
+                .withFormatter(new DefaultPassageFormatter(preTag, postTag, "... ", false))
+                .withMaxNoHighlightPassages(1);
+        return new UnifiedHighlighter(builder) {
+            // never the term vectors: they are kept for RM3 and carry no offsets
+            @Override
+            protected OffsetSource getOffsetSource(String field) {
+                FieldInfo info = getFieldInfo(field);
+                if (info != null && info.getIndexOptions() == IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) {
+                    return OffsetSource.POSTINGS;
+                }
+                return OffsetSource.ANALYSIS;
+            }
+        };
+    }
+
+    private synchronized void dropCore(IndexReader.CacheKey coreKey) {
+        trackedCores.remove(coreKey);
+        cache.keySet().removeIf(k -> k.coreKey() == coreKey);
+    }
+
+    public double getHitRate() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return cacheSize == 0 ? "uncached" : String.format("%d/%d snippets | hits %d | misses %d | hit rate %.1f%%",
+                cache.size(), cacheSize, hits.sum(), misses.sum(), getHitRate() * 100);
+    }
+}
@@ -0,0 +1,117 @@
+package org.cranfield;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the analyzer x similarity x boost grid as independent tasks on a
+ * bounded thread pool. Readers are opened before the tasks start and are
+ * only read from inside them, so tasks for the same analyzer share one
+ * DirectoryReader.
+ */
+public class SweepExecutor {
+
+    public static final String THREADS_PROPERTY = "cranfield.sweep.threads";
+
+    public record Combination(String analyzerName, Analyzer analyzer, String simName, int simChoice,
+                              float titleBoost, float bodyBoost) {
+
+        public String boostTag() {
+            return String.format("t%.0f_c%.0f", titleBoost, bodyBoost);
+        }
+
+        /** Name used for the per-combination output files, e.g. EnglishAnalyzer_BM25_t2_c1. */
+        public String runName() {
+            return runName("");
+        }
+
+        /**
+         * As {@link #runName()} with a {@link BatchSearchOptions#variant()} between the
+         * similarity and the boosts, e.g. EnglishAnalyzer_BM25_rm3-10-10-0.50_t2_c1.
+         */
+        public String runName(String variant) {
+            return analyzerName + "_" + simName + "_" + (variant.isEmpty() ? "" : variant + "_") + boostTag();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ComboTask {
+        void run(Combination combo) throws Exception;
+    }
+
+    private final int parallelism;
+
+    public SweepExecutor(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /** Parallelism from -Dcranfield.sweep.threads, defaulting to the number of cores. */
+    public static int defaultParallelism() {
+        String prop = System.getProperty(THREADS_PROPERTY);
+        if (prop != null && !prop.isBlank()) return Integer.parseInt(prop.trim());
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs every combination and waits for all of them. Failures are reported
+     * per combination; the first one is rethrown once the sweep has finished.
+     */
+    public void run(List<Combination> combos, ComboTask task) throws Exception {
+        run(combos, "", task);
+    }
+
+    /** As {@link #run(List, ComboTask)}, naming runs in progress and failure messages with {@code variant}. */
+    public void run(List<Combination> combos, String variant, ComboTask task) throws Exception {
+        int total = combos.size();
+        int threads = Math.min(parallelism, Math.max(total, 1));
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+
+        System.out.printf("Running %d combinations on %d thread(s)%n", total, threads);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(total);
+            for (Combination combo : combos) {
+                futures.add(pool.submit(() -> {
+                    long t0 = System.nanoTime();
+                    task.run(combo);
+                    reportProgress(combo.runName(variant), done.incrementAndGet(), total, t0, start);
+                    return null;
+                }));
+            }
+
+            Exception first = null;
+            for (int i = 0; i < total; i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("Combination " + combos.get(i).runName(variant) + " failed: " + e.getCause());
+                    if (first == null) first = e.getCause() instanceof Exception ex ? ex : e;
+                }
+            }
+            if (first != null) throw first;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.printf("Sweep finished in %.1fs%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void reportProgress(String runName, int completed, int total, long taskStart, long sweepStart) {
+        long now = System.nanoTime();
+        double taskSecs = (now - taskStart) / 1e9;
+        double elapsed = (now - sweepStart) / 1e9;
+        double eta = elapsed / completed * (total - completed);
+        System.out.printf("[%d/%d] %s done in %.2fs | elapsed %.1fs | ETA %.1fs%n",
+                completed, total, runName, taskSecs, elapsed, eta);
+    }
+}
@@ -0,0 +1,108 @@
+package org.cranfield;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Top-k search with an explicit total-hits threshold.
+ *
+ * Once a collector has counted {@code totalHitsThreshold} hits it only needs
+ * the best k, so it raises the minimum competitive score on the scorer and
+ * Lucene can skip whole blocks whose max score cannot make the top k
+ * (block-max WAND / MAXSCORE). With {@link #EXHAUSTIVE} every matching
+ * document is scored and counted. The top k are the same either way; only
+ * {@code totalHits} turns into a lower bound.
+ *
+ * Set the threshold with {@code -Dcranfield.search.totalHitsThreshold=<n>},
+ * {@code =k} (prune as soon as k hits are collected) or {@code =exhaustive}.
+ * Unset, it is max(k, 1000), the same as {@code IndexSearcher.search(query, k)}.
+ * On the 1,400-document collection pruning at k scores roughly 60% fewer
+ * documents but is no faster, so it is opt-in; see PruningBenchmark in the bench profile.
+ */
+public final class TopKSearch {
+
+    public static final String THRESHOLD_PROPERTY = "cranfield.search.totalHitsThreshold";
+    /** Count every hit, which disables dynamic pruning. */
+    public static final int EXHAUSTIVE = Integer.MAX_VALUE;
+
+    /** Hits plus the number of documents the collector was handed (i.e. fully scored). */
+    public record Result(TopDocs topDocs, long docsScored) {}
+
+    private TopKSearch() {}
+
+    public static Result search(IndexSearcher searcher, Query query, int k, int totalHitsThreshold) throws IOException {
+        LongAdder scored = new LongAdder();
+        TopScoreDocCollectorManager topK = new TopScoreDocCollectorManager(k, null, totalHitsThreshold);
+        TopDocs topDocs = searcher.search(query, new CollectorManager<Collector, TopDocs>() {
+            private final List<TopScoreDocCollector> collectors = new ArrayList<>();
+
+            @Override
+            public Collector newCollector() {
+                TopScoreDocCollector in = topK.newCollector();
+                synchronized (collectors) {
+                    collectors.add(in);
+                }
+                return new CountingCollector(in, scored);
+            }
+
+            @Override
+            public TopDocs reduce(Collection<Collector> unused) throws IOException {
+                return topK.reduce(collectors);
+            }
+        });
+        return new Result(topDocs, scored.sum());
+    }
+
+    /** Lucene's own threshold for {@code IndexSearcher.search(query, k)}. */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    /** The threshold to use for a top-{@code k} search, from the system property. */
+    public static int threshold(int k) {
+        String v = System.getProperty(THRESHOLD_PROPERTY);
+        if (v == null || v.isBlank()) return Math.max(k, DEFAULT_THRESHOLD);
+        v = v.trim();
+        if (v.equalsIgnoreCase("exhaustive")) return EXHAUSTIVE;
+        if (v.equalsIgnoreCase("k")) return k;
+        return Integer.parseInt(v);
+    }
+
+    private static final class CountingCollector extends FilterCollector {
+        private final LongAdder scored;
+
+        CountingCollector(Collector in, LongAdder scored) {
+            super(in);
+            this.scored = scored;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            LeafCollector leaf = super.getLeafCollector(context);
+            return new FilterLeafCollector(leaf) {
+                private long count;
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    count++;
+                    in.collect(doc);
+                }
+
+                @Override
+                public DocIdSetIterator competitiveIterator() throws IOException {
+                    return in.competitiveIterator();
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    scored.add(count);
+                    in.finish();
+                }
+            };
+        }
+    }
+}
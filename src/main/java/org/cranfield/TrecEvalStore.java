@@ -0,0 +1,372 @@
+package org.cranfield;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-query trec_eval measures of every run under output/trec_eval, kept in
+ * one binary file so summaries over thousands of runs do not re-read
+ * thousands of text files.
+ *
+ * <pre>
+ *   "CEVL" version measureCount measureNames... queryCount qids... runCount
+ *   per run: name, eval file length and modification time, the "all" value of every measure (double)
+ *   per measure, per run, per query: one unsigned 16-bit value
+ * </pre>
+ * Values are column-major, so one measure of all runs is a single contiguous
+ * block. Per-query values are stored in fixed point: counts as is, other
+ * measures times 10000, which is exactly the 4 decimals trec_eval prints;
+ * 0xFFFF marks a query the run was not evaluated on. The file is memory-mapped
+ * for reading.
+ *
+ * {@link #update} brings a store up to date with an eval directory: files
+ * whose length and modification time match the store are reused as they are,
+ * new or changed files are parsed in parallel, and runs whose file is gone
+ * are dropped. Eval files should be {@code trec_eval -q} output; files
+ * without per-query lines still contribute their "all" values. Run files
+ * (output/results) are not stored: every summary is computed from the
+ * measures, and a ranked list is a hundred lines per query that would grow
+ * the store many times over for data nothing reads back. They stay on disk
+ * for re-evaluation.
+ *
+ * The old store is read onto the heap, not mapped, while {@link #update}
+ * rewrites it, so nothing maps the file when the new one replaces it (Windows
+ * refuses to replace a mapped file). A store returned by {@link #open} or
+ * {@link #update} maps its file until it is garbage collected; on Windows,
+ * drop it before updating the same file again.
+ */
+public final class TrecEvalStore {
+
+    /** Measures kept per query and per run, in column order. */
+    public static final List<String> MEASURES = List.of("num_ret", "num_rel", "num_rel_ret", "map", "Rprec", "bpref",
+            "recip_rank", "iprec_at_recall_0.00", "P_5", "P_10", "P_20");
+    // the first COUNTS measures are integer counts, the rest are stored times SCALE
+    private static final int COUNTS = 3;
+    private static final double SCALE = 10000;
+    private static final char MISSING = 0xFFFF;
+    private static final Map<String, Integer> MEASURE_INDEX = new HashMap<>();
+
+    static {
+        for (int m = 0; m < MEASURES.size(); m++) MEASURE_INDEX.put(MEASURES.get(m), m);
+    }
+
+    private static final int MAGIC = 0x4345564C; // "CEVL"
+    private static final int VERSION = 1;
+    static final String EVAL_SUFFIX = "_trec.txt";
+
+    /**
+     * Analyzer, similarity and boosts of a sweep run, read from its name
+     * (see {@link SweepExecutor.Combination#runName()}); anything between the
+     * similarity and the boost tag is kept as the variant.
+     */
+    public record RunKey(String analyzer, String similarity, String variant, float titleBoost, float bodyBoost) {
+        private static final Pattern RUN_NAME =
+                Pattern.compile("([^_]+)_([^_]+)(?:_(.+))?_t(\\d+(?:\\.\\d+)?)_c(\\d+(?:\\.\\d+)?)");
+
+        /** The key of {@code runName}, or null when it does not follow the sweep's naming. */
+        public static RunKey parse(String runName) {
+            Matcher m = RUN_NAME.matcher(runName);
+            if (!m.matches()) return null;
+            return new RunKey(m.group(1), m.group(2), m.group(3) == null ? "" : m.group(3),
+                    Float.parseFloat(m.group(4)), Float.parseFloat(m.group(5)));
+        }
+    }
+
+    /** A run in the store: its name, the eval file it was read from, and its "all" values (NaN if absent). */
+    public record Run(String name, long fileLength, long lastModified, double[] all) {
+        public RunKey key() {
+            return RunKey.parse(name);
+        }
+
+        public double get(String measure) {
+            return all[measureIndex(measure)];
+        }
+    }
+
+    private final String[] qids;
+    private final List<Run> runs;
+    private final CharBuffer values;
+
+    private TrecEvalStore(String[] qids, List<Run> runs, CharBuffer values) {
+        this.qids = qids;
+        this.runs = runs;
+        this.values = values;
+    }
+
+    public static int measureIndex(String measure) {
+        Integer m = MEASURE_INDEX.get(measure);
+        if (m == null) throw new IllegalArgumentException("Measure not stored: " + measure + " (one of " + MEASURES + ")");
+        return m;
+    }
+
+    /** Whether a measure is an integer count (num_ret, num_rel, num_rel_ret) rather than a rate. */
+    public static boolean isCount(int measure) {
+        return measure < COUNTS;
+    }
+
+    public int numRuns() {
+        return runs.size();
+    }
+
+    public Run run(int run) {
+        return runs.get(run);
+    }
+
+    public int numQueries() {
+        return qids.length;
+    }
+
+    public String qid(int query) {
+        return qids[query];
+    }
+
+    /** Per-query value, NaN when the run has none for this query. */
+    public double value(int measure, int run, int query) {
+        return decode(measure, values.get((measure * runs.size() + run) * qids.length + query));
+    }
+
+    private static char encode(int measure, double v) {
+        if (Double.isNaN(v)) return MISSING;
+        long fixed = Math.round(isCount(measure) ? v : v * SCALE);
+        return (char) Math.max(0, Math.min(fixed, MISSING - 1));
+    }
+
+    private static double decode(int measure, char c) {
+        if (c == MISSING) return Double.NaN;
+        return isCount(measure) ? c : c / SCALE;
+    }
+
+    /** Opens a store file, or returns null when it is missing or of another format version. */
+    public static TrecEvalStore open(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        return read(buf);
+    }
+
+    /** As {@link #open}, reading the file onto the heap so that it is not held open or mapped. */
+    private static TrecEvalStore load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        return read(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    private static TrecEvalStore read(ByteBuffer buf) {
+        if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+        int numMeasures = buf.getInt();
+        List<String> measures = new ArrayList<>(numMeasures);
+        for (int m = 0; m < numMeasures; m++) measures.add(readString(buf));
+        if (!measures.equals(MEASURES)) return null;
+        String[] qids = new String[buf.getInt()];
+        for (int q = 0; q < qids.length; q++) qids[q] = readString(buf);
+        int numRuns = buf.getInt();
+        List<Run> runs = new ArrayList<>(numRuns);
+        for (int r = 0; r < numRuns; r++) {
+            String name = readString(buf);
+            long length = buf.getLong(), modified = buf.getLong();
+            double[] all = new double[numMeasures];
+            for (int m = 0; m < numMeasures; m++) all[m] = buf.getDouble();
+            runs.add(new Run(name, length, modified, all));
+        }
+        CharBuffer values = buf.slice(buf.position(), numMeasures * numRuns * qids.length * 2).asCharBuffer();
+        return new TrecEvalStore(qids, runs, values);
+    }
+
+    /** A freshly parsed eval file: per-query values laid out [measure * qids.length + query]. */
+    private record ParsedRun(Run run, String[] qids, char[] values) {}
+
+    /**
+     * Brings the store at {@code storeFile} up to date with the {@code *_trec.txt}
+     * files in {@code evalDir}, parsing new and changed files on {@code threads}
+     * threads, and returns it.
+     */
+    public static TrecEvalStore update(Path storeFile, Path evalDir, int threads) throws Exception {
+        long start = System.nanoTime();
+        TrecEvalStore old = load(storeFile);
+        Map<String, Integer> oldRuns = new HashMap<>();
+        if (old != null) {
+            for (int r = 0; r < old.numRuns(); r++) oldRuns.put(old.run(r).name(), r);
+        }
+
+        List<Path> files;
+        try (var list = Files.list(evalDir)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(EVAL_SUFFIX)).sorted().toList();
+        }
+        // per run in file order: an index into old, or the future parse of its file
+        Object[] sources = new Object[files.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        int parsed = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                String name = file.getFileName().toString();
+                name = name.substring(0, name.length() - EVAL_SUFFIX.length());
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                Integer r = oldRuns.get(name);
+                if (r != null && old.run(r).fileLength() == attrs.size()
+                        && old.run(r).lastModified() == attrs.lastModifiedTime().toMillis()) {
+                    sources[i] = r;
+                } else {
+                    String runName = name;
+                    sources[i] = pool.submit(() -> parse(file, runName, attrs));
+                    parsed++;
+                }
+            }
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] instanceof Future<?> f) {
+                    try {
+                        sources[i] = f.get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (old != null && parsed == 0 && sources.length == old.numRuns()) {
+            System.out.printf("Eval store %s: %d runs x %d queries, up to date%n", storeFile, old.numRuns(), old.numQueries());
+            return open(storeFile);
+        }
+
+        // query ids of all runs, numeric ones in numeric order
+        Set<String> qidSet = new HashSet<>();
+        for (Object s : sources) {
+            if (s instanceof ParsedRun p) {
+                qidSet.addAll(Arrays.asList(p.qids()));
+            } else if (old != null) {
+                qidSet.addAll(Arrays.asList(old.qids));
+            }
+        }
+        String[] qids = qidSet.toArray(new String[0]);
+        Arrays.sort(qids, Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+        Map<String, Integer> qidIndex = new HashMap<>();
+        for (int q = 0; q < qids.length; q++) qidIndex.put(qids[q], q);
+
+        // per run: its metadata and, per global query, the query's position in the source (-1 if absent)
+        List<Run> runs = new ArrayList<>(sources.length);
+        int[][] remap = new int[sources.length][];
+        int[] oldRemap = old == null ? null : new int[qids.length];
+        if (old != null) {
+            Arrays.fill(oldRemap, -1);
+            for (int q = 0; q < old.qids.length; q++) oldRemap[qidIndex.get(old.qids[q])] = q;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] instanceof ParsedRun p) {
+                runs.add(p.run());
+                remap[i] = new int[qids.length];
+                Arrays.fill(remap[i], -1);
+                for (int q = 0; q < p.qids().length; q++) remap[i][qidIndex.get(p.qids()[q])] = q;
+            } else {
+                runs.add(old.run((Integer) sources[i]));
+                remap[i] = oldRemap;
+            }
+        }
+
+        Files.createDirectories(storeFile.toAbsolutePath().getParent());
+        Path tmp = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(MEASURES.size());
+            for (String m : MEASURES) writeString(out, m);
+            out.writeInt(qids.length);
+            for (String qid : qids) writeString(out, qid);
+            out.writeInt(runs.size());
+            for (Run run : runs) {
+                writeString(out, run.name());
+                out.writeLong(run.fileLength());
+                out.writeLong(run.lastModified());
+                for (double v : run.all()) out.writeDouble(v);
+            }
+            for (int m = 0; m < MEASURES.size(); m++) {
+                for (int i = 0; i < sources.length; i++) {
+                    int[] map = remap[i];
+                    if (sources[i] instanceof ParsedRun p) {
+                        int base = m * p.qids().length;
+                        for (int q = 0; q < qids.length; q++) out.writeChar(map[q] < 0 ? MISSING : p.values()[base + map[q]]);
+                    } else {
+                        int base = (m * old.numRuns() + (Integer) sources[i]) * old.qids.length;
+                        for (int q = 0; q < qids.length; q++) out.writeChar(map[q] < 0 ? MISSING : old.values.get(base + map[q]));
+                    }
+                }
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Run run : runs) oldRuns.remove(run.name());
+        TrecEvalStore store = open(storeFile);
+        System.out.printf("Eval store %s: %d runs (%d parsed, %d reused, %d dropped) x %d queries, %.1f KB in %.2fs%n",
+                storeFile, runs.size(), parsed, runs.size() - parsed, oldRuns.size(), qids.length,
+                Files.size(storeFile) / 1024.0, (System.nanoTime() - start) / 1e9);
+        return store;
+    }
+
+    /** Reads the tracked measures of one trec_eval output file; lines of other measures are skipped. */
+    private static ParsedRun parse(Path file, String name, BasicFileAttributes attrs) throws IOException {
+        int numMeasures = MEASURES.size();
+        double[] all = new double[numMeasures];
+        Arrays.fill(all, Double.NaN);
+        Map<String, char[]> perQuery = new LinkedHashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // "measure <ws> qid <ws> value"
+                int len = line.length();
+                int a = 0;
+                while (a < len && Character.isWhitespace(line.charAt(a))) a++;
+                int b = a;
+                while (b < len && !Character.isWhitespace(line.charAt(b))) b++;
+                Integer m = MEASURE_INDEX.get(line.substring(a, b));
+                if (m == null) continue;
+                int c = b;
+                while (c < len && Character.isWhitespace(line.charAt(c))) c++;
+                int d = c;
+                while (d < len && !Character.isWhitespace(line.charAt(d))) d++;
+                double v = Double.parseDouble(line.substring(d).trim());
+                String qid = line.substring(c, d);
+                if (qid.equals("all")) {
+                    all[m] = v;
+                } else {
+                    char[] row = perQuery.get(qid);
+                    if (row == null) {
+                        row = new char[numMeasures];
+                        Arrays.fill(row, MISSING);
+                        perQuery.put(qid, row);
+                    }
+                    row[m] = encode(m, v);
+                }
+            }
+        }
+        String[] qids = perQuery.keySet().toArray(new String[0]);
+        char[] values = new char[numMeasures * qids.length];
+        for (int q = 0; q < qids.length; q++) {
+            char[] row = perQuery.get(qids[q]);
+            for (int m = 0; m < numMeasures; m++) values[m * qids.length + q] = row[m];
+        }
+        return new ParsedRun(new Run(name, attrs.size(), attrs.lastModifiedTime().toMillis(), all), qids, values);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
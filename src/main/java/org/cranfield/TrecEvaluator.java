@@ -0,0 +1,300 @@
+package org.cranfield;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * In-JVM replacement for the trec_eval binary. Computes the standard
+ * trec_eval measures from ranked lists held in memory and prints them in
+ * the same layout, so the files under output/trec_eval and the aggragator
+ * keep working without the C tool installed.
+ *
+ * Follows trec_eval 9.0.7 semantics: documents are ranked by score
+ * descending with ties broken by docno descending, only queries present in
+ * both the run and the qrels are evaluated, and a document is relevant when
+ * its judgement is >= 1.
+ */
+public class TrecEvaluator {
+
+    /** Ranked hits for one query, in the order the searcher returned them. */
+    public record QueryRun(String qid, String[] docIds, double[] scores) {
+        public int size() {
+            return docIds.length;
+        }
+    }
+
+    private static final int RELEVANCE_LEVEL = 1;
+    private static final double MIN_GEO_MEAN = 0.00001;
+    private static final int[] CUTOFFS = {5, 10, 15, 20, 30, 100, 200, 500, 1000};
+    private static final int RECALL_POINTS = 11;
+
+    // per-query value layout
+    static final int NUM_RET = 0;
+    static final int NUM_REL = 1;
+    static final int NUM_REL_RET = 2;
+    static final int MAP = 3;
+    static final int GM_MAP = 4;
+    static final int RPREC = 5;
+    static final int BPREF = 6;
+    static final int RECIP_RANK = 7;
+    static final int IPREC = 8;
+    static final int P = IPREC + RECALL_POINTS;
+    static final int NUM_MEASURES = P + CUTOFFS.length;
+
+    private static final String[] NAMES = new String[NUM_MEASURES];
+
+    static {
+        NAMES[NUM_RET] = "num_ret";
+        NAMES[NUM_REL] = "num_rel";
+        NAMES[NUM_REL_RET] = "num_rel_ret";
+        NAMES[MAP] = "map";
+        NAMES[GM_MAP] = "gm_map";
+        NAMES[RPREC] = "Rprec";
+        NAMES[BPREF] = "bpref";
+        NAMES[RECIP_RANK] = "recip_rank";
+        for (int i = 0; i < RECALL_POINTS; i++) {
+            NAMES[IPREC + i] = String.format("iprec_at_recall_%.2f", i / 10.0);
+        }
+        for (int i = 0; i < CUTOFFS.length; i++) {
+            NAMES[P + i] = "P_" + CUTOFFS[i];
+        }
+    }
+
+    private final Map<String, Map<String, Integer>> qrels;
+
+    /** @param qrels qid -> (docno -> relevance), as returned by {@link CranFieldParserIndexer#loadQrels}. */
+    public TrecEvaluator(Map<String, Map<String, Integer>> qrels) {
+        this.qrels = qrels;
+    }
+
+    /** Measures for one run: per-query values plus the "all" summary. */
+    public static class Result {
+        private final String runId;
+        private final SortedMap<String, double[]> perQuery;
+        private final double[] all;
+
+        Result(String runId, SortedMap<String, double[]> perQuery) {
+            this.runId = runId;
+            this.perQuery = perQuery;
+            this.all = new double[NUM_MEASURES];
+            int n = perQuery.size();
+            for (double[] v : perQuery.values()) {
+                for (int m = 0; m < NUM_MEASURES; m++) all[m] += v[m];
+            }
+            if (n > 0) {
+                for (int m = MAP; m < NUM_MEASURES; m++) all[m] /= n;
+                all[GM_MAP] = Math.exp(all[GM_MAP]);
+            }
+        }
+
+        public int numQueries() {
+            return perQuery.size();
+        }
+
+        /** Summary value for a trec_eval measure name, e.g. "map" or "iprec_at_recall_0.00". */
+        public double get(String measure) {
+            return all[indexOf(measure)];
+        }
+
+        public double get(String qid, String measure) {
+            double[] v = perQuery.get(qid);
+            if (v == null) throw new IllegalArgumentException("query not evaluated: " + qid);
+            return v[indexOf(measure)];
+        }
+
+        public Set<String> queryIds() {
+            return perQuery.keySet();
+        }
+
+        /** Writes trec_eval style output; with {@code perQuery} it matches {@code trec_eval -q}. */
+        public void write(PrintWriter pw, boolean perQuery) {
+            if (perQuery) {
+                for (Map.Entry<String, double[]> e : this.perQuery.entrySet()) {
+                    writeBlock(pw, e.getKey(), e.getValue());
+                }
+            }
+            pw.printf("%-22s\t%s\t%s\n", "runid", "all", runId);
+            pw.printf("%-22s\t%s\t%d\n", "num_q", "all", this.perQuery.size());
+            writeBlock(pw, "all", all);
+        }
+
+        private static void writeBlock(PrintWriter pw, String qid, double[] v) {
+            for (int m = 0; m < NUM_MEASURES; m++) {
+                // like trec_eval, gm_map is a summary-only measure
+                if (m == GM_MAP && !qid.equals("all")) continue;
+                if (m <= NUM_REL_RET) {
+                    pw.printf("%-22s\t%s\t%d\n", NAMES[m], qid, (long) v[m]);
+                } else {
+                    pw.printf("%-22s\t%s\t%6.4f\n", NAMES[m], qid, v[m]);
+                }
+            }
+        }
+    }
+
+    private static int indexOf(String measure) {
+        for (int m = 0; m < NUM_MEASURES; m++) {
+            if (NAMES[m].equals(measure)) return m;
+        }
+        throw new IllegalArgumentException("unknown measure: " + measure);
+    }
+
+    public Result evaluate(String runId, Collection<QueryRun> run) {
+        SortedMap<String, double[]> perQuery = new TreeMap<>();
+        for (QueryRun q : run) {
+            Map<String, Integer> judged = qrels.get(q.qid());
+            if (judged == null) continue;
+            perQuery.put(q.qid(), evaluateQuery(q, judged));
+        }
+        return new Result(runId, perQuery);
+    }
+
+    private static double[] evaluateQuery(QueryRun q, Map<String, Integer> judged) {
+        double[] v = new double[NUM_MEASURES];
+
+        long numRel = 0;
+        long numNonRel = 0;
+        for (int rel : judged.values()) {
+            if (rel >= RELEVANCE_LEVEL) numRel++;
+            else if (rel >= 0) numNonRel++;
+        }
+
+        Integer[] order = rankOrder(q);
+        int numRet = order.length;
+
+        double sumPrec = 0;
+        double bpref = 0;
+        long relSoFar = 0;
+        long nonRelSoFar = 0;
+        long relInR = 0;
+        int firstRelRank = 0;
+        double[] precAtRel = new double[numRet];
+        int numRelRanks = 0;
+        long[] relAtCutoff = new long[CUTOFFS.length];
+
+        for (int i = 0; i < numRet; i++) {
+            Integer rel = judged.get(q.docIds()[order[i]]);
+            boolean isRel = rel != null && rel >= RELEVANCE_LEVEL;
+            if (isRel) {
+                relSoFar++;
+                double prec = (double) relSoFar / (i + 1);
+                sumPrec += prec;
+                if (firstRelRank == 0) firstRelRank = i + 1;
+                if (i < numRel) relInR++;
+                precAtRel[numRelRanks] = prec;
+                numRelRanks++;
+                bpref += nonRelSoFar > 0
+                        ? 1.0 - (double) Math.min(nonRelSoFar, numRel) / Math.min(numNonRel, numRel)
+                        : 1.0;
+            } else if (rel != null && rel >= 0) {
+                nonRelSoFar++;
+            }
+            for (int c = 0; c < CUTOFFS.length; c++) {
+                if (i < CUTOFFS[c] && isRel) relAtCutoff[c]++;
+            }
+        }
+
+        v[NUM_RET] = numRet;
+        v[NUM_REL] = numRel;
+        v[NUM_REL_RET] = relSoFar;
+        double ap = numRel > 0 ? sumPrec / numRel : 0;
+        v[MAP] = ap;
+        v[GM_MAP] = Math.log(Math.max(ap, MIN_GEO_MEAN));
+        v[RPREC] = numRel > 0 ? (double) relInR / numRel : 0;
+        v[BPREF] = numRel > 0 ? bpref / numRel : 0;
+        v[RECIP_RANK] = firstRelRank > 0 ? 1.0 / firstRelRank : 0;
+
+        // interpolated precision: best precision at any rank holding at least the cut point's
+        // number of relevant docs, which trec_eval rounds as (long) (cut * numRel + 0.9)
+        double best = 0;
+        int r = numRelRanks - 1;
+        for (int p = RECALL_POINTS - 1; p >= 0; p--) {
+            long needed = (long) (p / 10.0 * numRel + 0.9);
+            if (needed > relSoFar) continue;
+            while (r >= 0 && r + 1 >= needed) {
+                best = Math.max(best, precAtRel[r]);
+                r--;
+            }
+            v[IPREC + p] = best;
+        }
+
+        for (int c = 0; c < CUTOFFS.length; c++) {
+            v[P + c] = (double) relAtCutoff[c] / CUTOFFS[c];
+        }
+        return v;
+    }
+
+    /**
+     * trec_eval ignores the rank column: score descending, then docno descending.
+     * Scores are compared at the six decimals written to the run file, so raw
+     * Lucene scores rank exactly like the file trec_eval would have read.
+     */
+    private static Integer[] rankOrder(QueryRun q) {
+        Integer[] order = new Integer[q.size()];
+        long[] rounded = new long[q.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            rounded[i] = Math.round(q.scores()[i] * 1e6);
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(rounded[b], rounded[a]);
+            return c != 0 ? c : q.docIds()[b].compareTo(q.docIds()[a]);
+        });
+        return order;
+    }
+
+    /**
+     * Reads a TREC run file ("qid Q0 docno rank score runid"). Query order
+     * follows the file.
+     */
+    public static List<QueryRun> readRunFile(String runFile) throws IOException {
+        Map<String, List<String[]>> byQuery = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(runFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] parts = line.split("\\s+");
+                if (parts.length < 6) continue;
+                byQuery.computeIfAbsent(parts[0], k -> new ArrayList<>()).add(parts);
+            }
+        }
+        List<QueryRun> run = new ArrayList<>(byQuery.size());
+        for (Map.Entry<String, List<String[]>> e : byQuery.entrySet()) {
+            List<String[]> rows = e.getValue();
+            String[] docIds = new String[rows.size()];
+            double[] scores = new double[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                docIds[i] = rows.get(i)[2];
+                scores[i] = Double.parseDouble(rows.get(i)[4]);
+            }
+            run.add(new QueryRun(e.getKey(), docIds, scores));
+        }
+        return run;
+    }
+
+    static String readRunId(String runFile) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(runFile))) {
+            String line = br.readLine();
+            if (line == null) return "";
+            String[] parts = line.trim().split("\\s+");
+            return parts.length >= 6 ? parts[5] : "";
+        }
+    }
+
+    /** Command-line use mirrors the binary: {@code TrecEvaluator [-q] qrels run}. */
+    public static void main(String[] args) throws IOException {
+        boolean perQuery = args.length == 3 && args[0].equals("-q");
+        if (args.length != (perQuery ? 3 : 2)) {
+            System.err.println("Usage: TrecEvaluator [-q] <qrels> <run>");
+            System.exit(1);
+        }
+        String qrelsFile = args[perQuery ? 1 : 0];
+        String runFile = args[perQuery ? 2 : 1];
+
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels(qrelsFile));
+        Result result = evaluator.evaluate(readRunId(runFile), readRunFile(runFile));
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(System.out));
+        result.write(pw, perQuery);
+        pw.flush();
+    }
+}
@@ -0,0 +1,188 @@
+package org.cranfield;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Two-stage retrieval: the top N candidates come from a plain search with the
+ * searcher's own similarity (pruned as soon as N hits are found), then each
+ * re-ranker rescores only those N documents with {@link QueryRescorer}, and
+ * the best k are kept. In a sweep the first stage is therefore the
+ * combination's similarity, and each combination gives a distinct run.
+ * Cost per query is the first-stage search plus N document scorings per
+ * re-ranker, never a second pass over every match.
+ *
+ * Re-rankers are given as a comma-separated spec, applied left to right:
+ * <ul>
+ *   <li>{@code TFIDF}, {@code BM25}, {@code LMDirichlet}, {@code LMJelinekMercer}:
+ *       replace the score with that similarity's score for the same query</li>
+ *   <li>{@code fields:<titleBoost>:<bodyBoost>}: replace the score with BM25 under other field boosts</li>
+ *   <li>{@code proximity:<slop>:<weight>}: add weight x the score of sloppy phrase
+ *       matches of adjacent query terms in title and body</li>
+ * </ul>
+ * Batch runs use it through {@link BatchSearchOptions#reranker}, or
+ * {@code -Dcranfield.rerank=<spec>} with {@code -Dcranfield.rerank.candidates=N} (default 200).
+ */
+public final class TwoStageSearch {
+
+    public static final String RERANK_PROPERTY = "cranfield.rerank";
+    public static final String CANDIDATES_PROPERTY = "cranfield.rerank.candidates";
+    private static final int DEFAULT_CANDIDATES = 200;
+
+    /** Rescores first-stage candidates; implementations must return every candidate, best first. */
+    public interface Reranker {
+        TopDocs rescore(IndexReader reader, QueryCompiler.CompiledQuery query, TopDocs candidates) throws IOException;
+
+        String name();
+    }
+
+    private final int candidates;
+    private final List<Reranker> rerankers;
+
+    public TwoStageSearch(int candidates, List<Reranker> rerankers) {
+        if (candidates < 1) throw new IllegalArgumentException("candidates must be >= 1: " + candidates);
+        this.candidates = candidates;
+        this.rerankers = List.copyOf(rerankers);
+    }
+
+    /** Pipeline from {@code -Dcranfield.rerank}, or null when it is not set. */
+    public static TwoStageSearch fromSystemProperties() {
+        String spec = System.getProperty(RERANK_PROPERTY);
+        if (spec == null || spec.isBlank()) return null;
+        String n = System.getProperty(CANDIDATES_PROPERTY);
+        return new TwoStageSearch(n == null || n.isBlank() ? DEFAULT_CANDIDATES : Integer.parseInt(n.trim()),
+                parse(spec));
+    }
+
+    public static List<Reranker> parse(String spec) {
+        List<Reranker> rerankers = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] p = part.trim().split(":");
+            switch (p[0]) {
+                case "fields" -> rerankers.add(fieldWeights(Float.parseFloat(p[1]), Float.parseFloat(p[2])));
+                case "proximity" -> rerankers.add(proximity(p.length > 1 ? Integer.parseInt(p[1]) : 3,
+                        p.length > 2 ? Float.parseFloat(p[2]) : 1.0f));
+                default -> {
+                    int sim = Arrays.asList(CranFieldParserIndexer.SIMILARITY_NAMES).indexOf(p[0]) + 1;
+                    if (sim == 0) throw new IllegalArgumentException("Unknown re-ranker: " + part);
+                    rerankers.add(similarity(sim));
+                }
+            }
+        }
+        return rerankers;
+    }
+
+    /** Replaces each candidate's score with the same query scored by another similarity. */
+    public static Reranker similarity(int simChoice) {
+        String name = CranFieldParserIndexer.SIMILARITY_NAMES[simChoice - 1];
+        return new Reranker() {
+            @Override
+            public TopDocs rescore(IndexReader reader, QueryCompiler.CompiledQuery query, TopDocs candidates) throws IOException {
+                return replaceScores(query.query()).rescore(
+                        CranFieldParserIndexer.makeSearcherWithSimilarity(reader, simChoice), candidates,
+                        candidates.scoreDocs.length);
+            }
+
+            @Override
+            public String name() {
+                return name;
+            }
+        };
+    }
+
+    /** Replaces each candidate's score with BM25 under different title/body boosts. */
+    public static Reranker fieldWeights(float titleBoost, float bodyBoost) {
+        return new Reranker() {
+            @Override
+            public TopDocs rescore(IndexReader reader, QueryCompiler.CompiledQuery query, TopDocs candidates) throws IOException {
+                Query q = QueryCompiler.compile(terms(query), titleBoost, bodyBoost);
+                return replaceScores(q).rescore(CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2),
+                        candidates, candidates.scoreDocs.length);
+            }
+
+            @Override
+            public String name() {
+                return String.format(Locale.ROOT, "fields%.0f-%.0f", titleBoost, bodyBoost);
+            }
+        };
+    }
+
+    /**
+     * Adds {@code weight} times the BM25 score of sloppy phrase matches between
+     * adjacent query terms, in title and body. Candidates without any such
+     * match keep their first-stage score.
+     */
+    public static Reranker proximity(int slop, float weight) {
+        return new Reranker() {
+            @Override
+            public TopDocs rescore(IndexReader reader, QueryCompiler.CompiledQuery query, TopDocs candidates) throws IOException {
+                List<String> terms = terms(query);
+                if (terms.size() < 2) return candidates;
+                BooleanQuery.Builder pairs = new BooleanQuery.Builder();
+                for (int i = 1; i < terms.size(); i++) {
+                    for (String field : new String[]{"title", "body"}) {
+                        pairs.add(new PhraseQuery(slop, field, terms.get(i - 1), terms.get(i)), BooleanClause.Occur.SHOULD);
+                    }
+                }
+                return QueryRescorer.rescore(CranFieldParserIndexer.makeSearcherWithSimilarity(reader, 2), candidates,
+                        pairs.build(), weight, candidates.scoreDocs.length);
+            }
+
+            @Override
+            public String name() {
+                return String.format(Locale.ROOT, "proximity%d", slop);
+            }
+        };
+    }
+
+    private static QueryRescorer replaceScores(Query query) {
+        return new QueryRescorer(query) {
+            @Override
+            protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
+                return secondPassMatches ? secondPassScore : 0f;
+            }
+        };
+    }
+
+    private static List<String> terms(QueryCompiler.CompiledQuery query) {
+        return query.terms().isEmpty() ? List.of() : Arrays.asList(query.terms().split(" "));
+    }
+
+    /**
+     * The re-rankers, e.g. {@code LMDirichlet+proximity3}, used in run names next
+     * to the first-stage similarity; {@code none} without re-rankers.
+     */
+    public String name() {
+        if (rerankers.isEmpty()) return "none";
+        StringJoiner sj = new StringJoiner("+");
+        for (Reranker r : rerankers) sj.add(r.name());
+        return sj.toString();
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * First stage on {@code searcher}, with its similarity, for the top N, then
+     * every re-ranker in turn; returns the best {@code topK}. Docs scored counts
+     * the first stage plus N per re-ranker.
+     */
+    public TopKSearch.Result search(IndexSearcher searcher, QueryCompiler.CompiledQuery query, int topK) throws IOException {
+        int n = Math.max(candidates, topK);
+        TopKSearch.Result first = TopKSearch.search(searcher, query.query(), n, n);
+        TopDocs hits = first.topDocs();
+        long scored = first.docsScored();
+        for (Reranker r : rerankers) {
+            hits = r.rescore(searcher.getIndexReader(), query, hits);
+            scored += hits.scoreDocs.length;
+        }
+        if (hits.scoreDocs.length > topK) {
+            hits = new TopDocs(hits.totalHits, Arrays.copyOf(hits.scoreDocs, topK));
+        }
+        return new TopKSearch.Result(hits, scored);
+    }
+}
@@ -3,116 +3,177 @@ package org.cranfield;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.regex.*;
-import java.util.stream.Collectors;
 
+/**
+ * Summarises the sweep's trec_eval output. The eval files are first folded
+ * into {@link TrecEvalStore} (only new or changed files are parsed), then
+ * written out as output/trec_eval_summary.csv, one row per run sorted by MAP,
+ * and as per-query comparison tables under output/per_query/: per measure a
+ * query x run table ({@code <measure>.csv}, runs in summary order) and a
+ * per-query spread over all runs ({@code <measure>_summary.csv}).
+ *
+ * Settings: {@code cranfield.aggregate.measures} (per-query tables, default
+ * {@code map,P_10}), {@code cranfield.aggregate.maxRuns} (columns of the
+ * query x run tables, 0 = all runs) and {@code cranfield.aggregate.threads}
+ * (parser threads, default {@link SweepExecutor#defaultParallelism()}).
+ */
 public class aggragator {
 
-    public static void main(String[] args) throws IOException {
+    static final String STORE_FILE = "output/trec_eval.store";
+    static final String PER_QUERY_DIR = "output/per_query";
+
+    public static void main(String[] args) throws Exception {
         String trecEvalDir = "output/trec_eval";
         String outputCSV = "output/trec_eval_summary.csv";
+        String latencyCSV = QueryMetrics.LATENCY_CSV;
+        int threads = Integer.parseInt(System.getProperty("cranfield.aggregate.threads",
+                String.valueOf(SweepExecutor.defaultParallelism())).trim());
+        int maxRuns = Integer.parseInt(System.getProperty("cranfield.aggregate.maxRuns", "0").trim());
+        String[] perQueryMeasures = System.getProperty("cranfield.aggregate.measures", "map,P_10").split(",");
+
+        long start = System.nanoTime();
+        TrecEvalStore store = TrecEvalStore.update(Paths.get(STORE_FILE), Paths.get(trecEvalDir), threads);
+        Map<String, double[]> latencies = parseLatencyFile(Paths.get(latencyCSV));
+
+        // runs by MAP descending, runs without MAP last
+        int map = TrecEvalStore.measureIndex("map");
+        Integer[] order = new Integer[store.numRuns()];
+        double[] maps = new double[store.numRuns()];
+        for (int r = 0; r < order.length; r++) {
+            order[r] = r;
+            double v = store.run(r).all()[map];
+            maps[r] = Double.isNaN(v) ? 0.0 : v;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(maps[b], maps[a]));
+
+        int[] summary = {map, TrecEvalStore.measureIndex("P_10"), TrecEvalStore.measureIndex("Rprec"),
+                TrecEvalStore.measureIndex("bpref"), TrecEvalStore.measureIndex("recip_rank"),
+                TrecEvalStore.measureIndex("iprec_at_recall_0.00")};
+        int numRel = TrecEvalStore.measureIndex("num_rel"), numRelRet = TrecEvalStore.measureIndex("num_rel_ret");
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outputCSV)))) {
+            writer.println("Analyzer,Similarity,T1,C1,T2,C2,MAP,P@10,R-Prec,bpref,recip_rank,InterpolatedPrecision,Recall,QPS,p50_ms,p95_ms,p99_ms,Max_ms");
+            for (int r : order) {
+                TrecEvalStore.Run run = store.run(r);
+                TrecEvalStore.RunKey key = run.key();
+                StringBuilder row = new StringBuilder();
+                if (key == null) {
+                    row.append(run.name()).append(",Unknown,,,,");
+                } else {
+                    // re-ranked / expanded runs keep their variant next to the similarity
+                    row.append(key.analyzer()).append(',').append(key.similarity())
+                            .append(key.variant().isEmpty() ? "" : "+" + key.variant()).append(',')
+                            .append(key.titleBoost() == 1 ? "1" : "").append(',')
+                            .append(key.bodyBoost() == 1 ? "1" : "").append(',')
+                            .append(key.titleBoost() == 2 ? "1" : "").append(',')
+                            .append(key.bodyBoost() == 2 ? "1" : "");
+                }
+                for (int m : summary) row.append(',').append(format(run.all()[m], "%.4f"));
+                double rel = run.all()[numRel], relRet = run.all()[numRelRet];
+                row.append(',').append(rel > 0 ? relRet / rel : 0.0);
+
+                // speed columns from the sweep's latency summary (TOTAL phase), blank if not measured
+                double[] latency = latencies.get(run.name());
+                for (int i = 0; i < 5; i++) {
+                    row.append(',').append(latency == null ? "" : format(latency[i], i == 0 ? "%.2f" : "%.4f"));
+                }
+                writer.println(row);
+            }
+        }
+        System.out.println("TREC Eval summary CSV generated at: " + outputCSV);
 
-        List<String> metrics = List.of(
-                "map",
-                "P_10",
-                "Rprec",
-                "bpref",
-                "recip_rank",
-                "iprec_at_recall_0.00",
-                "num_rel",
-                "num_rel_ret"
-        );
-
-        List<Map<String, String>> allRows = new ArrayList<>();
-
-        Files.list(Paths.get(trecEvalDir))
-                .filter(path -> path.toString().endsWith(".txt"))
-                .forEach(path -> {
-                    try {
-                        Map<String, String> values = parseTrecEvalFile(path, metrics);
-                        String fileName = path.getFileName().toString().replace("_trec.txt", "");
-                        String[] parts = fileName.split("_");
-
-                        // Basic analyzer & similarity
-                        String analyzer = parts[0];
-                        String similarity = parts.length > 1 ? parts[1] : "Unknown";
-
-                        String t1 = "", c1 = "", t2 = "", c2 = "";
-                        for (String part : parts) {
-                            switch (part.toLowerCase()) {
-                                case "t1" -> t1 = "1";
-                                case "c1" -> c1 = "1";
-                                case "t2" -> t2 = "1";
-                                case "c2" -> c2 = "1";
-                            }
-                        }
-
-                        double recall = 0.0;
-                        if (values.containsKey("num_rel") && values.containsKey("num_rel_ret")) {
-                            try {
-                                double numRel = Double.parseDouble(values.get("num_rel"));
-                                double numRelRet = Double.parseDouble(values.get("num_rel_ret"));
-                                if (numRel > 0) {
-                                    recall = numRelRet / numRel;
-                                }
-                            } catch (NumberFormatException ignored) {}
-                        }
-
-                        Map<String, String> row = new LinkedHashMap<>();
-                        row.put("Analyzer", analyzer);
-                        row.put("Similarity", similarity);
-                        row.put("T1", t1);
-                        row.put("C1", c1);
-                        row.put("T2", t2);
-                        row.put("C2", c2);
-                        row.put("MAP", values.getOrDefault("map", ""));
-                        row.put("P@10", values.getOrDefault("P_10", ""));
-                        row.put("R-Prec", values.getOrDefault("Rprec", ""));
-                        row.put("bpref", values.getOrDefault("bpref", ""));
-                        row.put("recip_rank", values.getOrDefault("recip_rank", ""));
-                        row.put("InterpolatedPrecision", values.getOrDefault("iprec_at_recall_0.00", ""));
-                        row.put("Recall", String.valueOf(recall));
-
-                        allRows.add(row);
-
-                    } catch (IOException e) {
-                        System.err.println("Error reading file: " + path + " - " + e.getMessage());
-                    }
-                });
-
-        allRows.sort((a, b) -> {
-            double mapA = a.get("MAP").isEmpty() ? 0.0 : Double.parseDouble(a.get("MAP"));
-            double mapB = b.get("MAP").isEmpty() ? 0.0 : Double.parseDouble(b.get("MAP"));
-            return Double.compare(mapB, mapA); // descending
-        });
+        if (store.numQueries() > 0) {
+            Files.createDirectories(Paths.get(PER_QUERY_DIR));
+            int[] columns = Arrays.stream(order).mapToInt(Integer::intValue)
+                    .limit(maxRuns > 0 ? maxRuns : order.length).toArray();
+            for (String measure : perQueryMeasures) {
+                writePerQuery(store, TrecEvalStore.measureIndex(measure.trim()), columns, order);
+            }
+            System.out.println("Per-query tables for " + String.join(",", perQueryMeasures) + " written to " + PER_QUERY_DIR);
+        } else {
+            System.out.println("No per-query values in " + trecEvalDir + " (run trec_eval with -q for per-query tables)");
+        }
+        System.out.printf("Aggregated %d runs in %.2fs%n", store.numRuns(), (System.nanoTime() - start) / 1e9);
+    }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(outputCSV))) {
-            writer.println("Analyzer,Similarity,T1,C1,T2,C2,MAP,P@10,R-Prec,bpref,recip_rank,InterpolatedPrecision,Recall");
-            for (Map<String, String> row : allRows) {
-                writer.println(row.values().stream().collect(Collectors.joining(",")));
+    /**
+     * Writes the query x run table of one measure for the runs in {@code columns},
+     * and per query the spread of the measure over all runs: mean, standard
+     * deviation, best and worst run, and how far the best run by MAP
+     * ({@code order[0]}) is from the best run for that query.
+     */
+    private static void writePerQuery(TrecEvalStore store, int measure, int[] columns, Integer[] order) throws IOException {
+        String name = TrecEvalStore.MEASURES.get(measure);
+        try (PrintWriter table = new PrintWriter(new BufferedWriter(new FileWriter(PER_QUERY_DIR + "/" + name + ".csv")));
+             PrintWriter spread = new PrintWriter(new BufferedWriter(new FileWriter(PER_QUERY_DIR + "/" + name + "_summary.csv")))) {
+            StringBuilder header = new StringBuilder("qid");
+            for (int r : columns) header.append(',').append(store.run(r).name());
+            table.println(header);
+            spread.println("qid,runs,mean,stdev,min,max,best_run,worst_run,top_run,top_run_gap");
+
+            String format = TrecEvalStore.isCount(measure) ? "%.0f" : "%.4f";
+            StringBuilder row = new StringBuilder();
+            for (int q = 0; q < store.numQueries(); q++) {
+                row.setLength(0);
+                row.append(store.qid(q));
+                for (int r : columns) {
+                    row.append(',');
+                    appendFixed(row, store.value(measure, r, q), TrecEvalStore.isCount(measure));
+                }
+                table.println(row);
+
+                int n = 0, best = -1, worst = -1;
+                double sum = 0, sumSq = 0;
+                for (int r : order) {
+                    double v = store.value(measure, r, q);
+                    if (Double.isNaN(v)) continue;
+                    n++;
+                    sum += v;
+                    sumSq += v * v;
+                    if (best < 0 || v > store.value(measure, best, q)) best = r;
+                    if (worst < 0 || v < store.value(measure, worst, q)) worst = r;
+                }
+                if (n == 0) continue;
+                double mean = sum / n, max = store.value(measure, best, q);
+                double top = store.value(measure, order[0], q);
+                spread.printf(Locale.ROOT, "%s,%d,%.4f,%.4f,%s,%s,%s,%s,%s,%s%n", store.qid(q), n, mean,
+                        Math.sqrt(Math.max(0, sumSq / n - mean * mean)), format(store.value(measure, worst, q), format),
+                        format(max, format), store.run(best).name(), store.run(worst).name(), format(top, format),
+                        format(max - top, format));
             }
         }
+    }
 
-        System.out.println("TREC Eval summary CSV generated at: " + outputCSV);
+    /** Appends v like %.0f (counts) or %.4f without going through String.format; nothing for NaN. */
+    private static void appendFixed(StringBuilder sb, double v, boolean count) {
+        if (Double.isNaN(v)) return;
+        if (count) {
+            sb.append(Math.round(v));
+            return;
+        }
+        long fixed = Math.round(v * 10000);
+        sb.append(fixed / 10000).append('.');
+        long fraction = fixed % 10000;
+        for (long digit = 1000; digit > fraction && digit > 1; digit /= 10) sb.append('0');
+        sb.append(fraction);
     }
 
-    private static Map<String, String> parseTrecEvalFile(Path file, List<String> metrics) throws IOException {
-        Map<String, String> values = new HashMap<>();
-        Pattern pattern = Pattern.compile("^(\\S+)\\s+all\\s+(\\S+)$");
+    private static String format(double v, String format) {
+        return Double.isNaN(v) ? "" : String.format(Locale.ROOT, format, v);
+    }
 
+    /** Run name -> {QPS, p50, p95, p99, max} for the TOTAL phase of {@link QueryMetrics#LATENCY_CSV}. */
+    private static Map<String, double[]> parseLatencyFile(Path file) throws IOException {
+        Map<String, double[]> latencies = new HashMap<>();
+        if (!Files.exists(file)) return latencies;
         try (BufferedReader br = Files.newBufferedReader(file)) {
-            String line;
+            String line = br.readLine(); // header
             while ((line = br.readLine()) != null) {
-                Matcher matcher = pattern.matcher(line.trim());
-                if (matcher.find()) {
-                    String metric = matcher.group(1);
-                    String value = matcher.group(2);
-                    if (metrics.contains(metric)) {
-                        values.put(metric, value);
-                    }
-                }
+                String[] cols = line.split(",");
+                if (cols.length < 9 || !cols[1].equals(QueryMetrics.Phase.TOTAL.name())) continue;
+                latencies.put(cols[0], new double[]{Double.parseDouble(cols[3]), Double.parseDouble(cols[5]),
+                        Double.parseDouble(cols[6]), Double.parseDouble(cols[7]), Double.parseDouble(cols[8])});
             }
         }
-        return values;
+        return latencies;
     }
 }
@@ -0,0 +1,56 @@
+package org.cranfield;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link TrecEvaluator} with the output of the trec_eval 9.0.7 binary
+ * on its own test collection (trec_eval-9.0.7/test).
+ */
+class TrecEvaluatorTest {
+
+    private static final Path TEST_DIR = Paths.get("trec_eval-9.0.7", "test");
+
+    private static String evaluate(boolean perQuery) throws IOException {
+        String runFile = TEST_DIR.resolve("results.test").toString();
+        TrecEvaluator evaluator = new TrecEvaluator(CranFieldParserIndexer.loadQrels(TEST_DIR.resolve("qrels.test").toString()));
+        TrecEvaluator.Result result = evaluator.evaluate(TrecEvaluator.readRunId(runFile), TrecEvaluator.readRunFile(runFile));
+        StringWriter out = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(out)) {
+            result.write(pw, perQuery);
+        }
+        return out.toString();
+    }
+
+    /** {@code trec_eval qrels.test results.test} */
+    @Test
+    void summaryMatchesTrecEval() throws IOException {
+        assertEquals(Files.readString(TEST_DIR.resolve("out.test")), evaluate(false));
+    }
+
+    /**
+     * {@code trec_eval -a -q qrels.test results.test}, restricted to the
+     * measures TrecEvaluator computes, in trec_eval's order.
+     */
+    @Test
+    void perQueryMatchesTrecEval() throws IOException {
+        List<String> actual = Arrays.asList(evaluate(true).split("\n"));
+        Set<String> measures = actual.stream().map(line -> line.split("\t")[0].trim()).collect(Collectors.toSet());
+        List<String> expected = Files.readAllLines(TEST_DIR.resolve("out.test.aq")).stream()
+                .filter(line -> measures.contains(line.split("\t")[0].trim()))
+                .toList();
+        assertEquals(expected, actual);
+    }
+}